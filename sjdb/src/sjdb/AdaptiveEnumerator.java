@@ -0,0 +1,74 @@
+package sjdb;
+
+/**
+ * This class chooses a join enumeration strategy from the shape of the
+ * query graph: exhaustive DPccp enumeration for graphs with few csg-cmp
+ * pairs, greedy operator ordering for larger graphs that are dense, and
+ * simulated annealing for larger sparse graphs.
+ *
+ * The relation count alone is a poor guide: DPccp handles a chain of 20
+ * relations in milliseconds, but a clique of 12 has hundreds of thousands
+ * of pairs, and a star of 16 tens of thousands more than a chain. So the
+ * pairs are counted (up to the limit, which is cheap), and a query is
+ * planned exhaustively only if it has few enough. Annealing decodes every
+ * move into a plan, which takes time in proportion to the edges of the
+ * graph, so it is kept for graphs with few edges per relation. Every
+ * strategy is deterministic, so the same query always gets the same plan.
+ */
+public class AdaptiveEnumerator implements PlanEnumerator {
+	private long pairLimit;
+	private double denseDegree;
+	private PlanEnumerator exhaustive;
+	private PlanEnumerator greedy;
+	private PlanEnumerator randomised;
+
+	/**
+	 * Create a new enumerator that plans graphs of up to 2500 csg-cmp pairs
+	 * exhaustively (about 50ms), and larger graphs whose relations have an
+	 * average of four or more neighbours greedily.
+	 */
+	public AdaptiveEnumerator() {
+		this(2500, 4);
+	}
+
+	/**
+	 * Create a new enumerator with the given thresholds.
+	 * @param pairLimit Largest number of csg-cmp pairs planned exhaustively
+	 * @param denseDegree Smallest average number of neighbours of a relation
+	 * for which larger graphs are planned greedily
+	 */
+	public AdaptiveEnumerator(long pairLimit, double denseDegree) {
+		this.pairLimit = pairLimit;
+		this.denseDegree = denseDegree;
+		this.exhaustive = new DPccpEnumerator(0); // the pairs are counted here
+		this.greedy = new GreedyEnumerator();
+		this.randomised = new AnnealingEnumerator();
+	}
+
+	/**
+	 * Return the strategy used for a query graph
+	 * @param graph Query graph
+	 * @return Plan enumerator
+	 */
+	public PlanEnumerator choose(QueryGraph graph) {
+		if (DPccpEnumerator.countPairs(graph, this.pairLimit) <= this.pairLimit) {
+			return this.exhaustive;
+		}
+		long degrees = 0;
+		for (int i = 0; i < graph.size(); i++) {
+			degrees += Long.bitCount(graph.getNeighbours(i));
+		}
+		if (degrees >= this.denseDegree * graph.size()) {
+			return this.greedy;
+		} else {
+			return this.randomised;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.PlanEnumerator#enumerate(sjdb.QueryGraph)
+	 */
+	public Operator enumerate(QueryGraph graph) {
+		return choose(graph).enumerate(graph);
+	}
+}
@@ -0,0 +1,199 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class implements a randomised join enumerator based on simulated
+ * annealing, for queries too large for the other strategies. A plan is
+ * encoded as an ordering of the relations, which is decoded in the same
+ * way as PostgreSQL's genetic optimiser (GEQO): relations are taken in
+ * order, and each is joined to any partial plan it has a predicate with,
+ * so that cross products only appear between disconnected components and
+ * bushy plans can be produced.
+ *
+ * If the graph is restricted to left-deep plans, the ordering is decoded
+ * into a single left-deep plan instead, taking the first relation in the
+ * ordering that is connected to the plan so far (or the first relation
+ * left, if none is).
+ *
+ * A move swaps two relations in the ordering. Moves that make the plan
+ * cheaper are always accepted, and moves that make it more expensive are
+ * accepted with a probability that falls as the search cools. The random
+ * number generator is seeded, so the same query always gets the same plan.
+ *
+ * Each move decodes a whole plan, which takes time in proportion to the
+ * relations and edges of the graph, so the number of moves is scaled down
+ * as the graph gets denser: a graph of n relations and e edges gets
+ * movesPerRelation * n * n / (n + e) moves, which is half of
+ * movesPerRelation * n for a chain, and keeps the work per query about the
+ * same for a clique of the same size. If the graph expires, the remaining
+ * moves are skipped and the best plan seen so far is returned.
+ *
+ * The plan found by GreedyEnumerator is returned instead if it is cheaper
+ * than every plan the search visits, as it can be for stars, where few
+ * moves change the plan much.
+ */
+public class AnnealingEnumerator implements PlanEnumerator {
+	private static final double START_TEMPERATURE = 1.0;
+	private static final double END_TEMPERATURE = 0.001;
+
+	private long seed;
+	private int movesPerRelation;
+
+	/**
+	 * Create a new enumerator with a fixed seed and 20 moves per relation
+	 */
+	public AnnealingEnumerator() {
+		this(0x5D1BL, 20);
+	}
+
+	/**
+	 * Create a new enumerator.
+	 * @param seed Seed for the random number generator
+	 * @param movesPerRelation Number of moves tried per relation in a query
+	 * with no edges, scaled down for denser queries
+	 */
+	public AnnealingEnumerator(long seed, int movesPerRelation) {
+		this.seed = seed;
+		this.movesPerRelation = movesPerRelation;
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.PlanEnumerator#enumerate(sjdb.QueryGraph)
+	 */
+	public Operator enumerate(QueryGraph graph) {
+		int n = graph.size();
+		Random random = new Random(this.seed);
+
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		Operator current = decode(graph, order);
+		long currentCost = graph.getCost(current);
+		Operator best = current;
+		long bestCost = currentCost;
+		Operator seed = new GreedyEnumerator().enumerate(graph);
+		if (graph.getCost(seed) < bestCost) {
+			best = seed;
+			bestCost = graph.getCost(seed);
+		}
+
+		int moves = n < 2 ? 0 : moves(graph);
+		double cooling = Math.pow(END_TEMPERATURE / START_TEMPERATURE, 1.0 / Math.max(1, moves));
+		double temperature = START_TEMPERATURE;
+
+		for (int move = 0; move < moves && !graph.isExpired(); move++, temperature *= cooling) {
+			int i = random.nextInt(n);
+			int j = random.nextInt(n - 1);
+			if (j >= i) j++;
+			swap(order, i, j);
+
+			Operator candidate = decode(graph, order);
+			long temp = graph.getCost(candidate);
+
+			// the change in cost is taken relative to the current cost, so
+			// the temperature schedule does not depend on the data size
+			double delta = (double) (temp - currentCost) / Math.max(1, currentCost);
+			if (delta <= 0 || random.nextDouble() < Math.exp(-delta / temperature)) {
+				current = candidate;
+				currentCost = temp;
+				if (temp < bestCost) {
+					best = candidate;
+					bestCost = temp;
+				}
+			} else {
+				swap(order, i, j); // undo the move
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Return the number of moves tried for a graph: movesPerRelation * n * n / (n + e)
+	 */
+	private int moves(QueryGraph graph) {
+		long n = graph.size();
+		long degrees = 0;
+		for (int i = 0; i < n; i++) {
+			degrees += Long.bitCount(graph.getNeighbours(i));
+		}
+		return (int) Math.max(n, this.movesPerRelation * n * n / (n + degrees / 2));
+	}
+
+	/**
+	 * Build the plan encoded by an ordering of the relations
+	 */
+	private static Operator decode(QueryGraph graph, int[] order) {
+		if (graph.isLeftDeep()) {
+			return decodeLeftDeep(graph, order);
+		}
+
+		List<Operator> clumps = new ArrayList<Operator>();
+		List<Long> masks = new ArrayList<Long>();
+
+		for (int rel : order) {
+			Operator plan = graph.getRelation(rel);
+			long mask = 1L << rel;
+
+			// join with every partial plan the new one is connected to
+			boolean merged = true;
+			while (merged) {
+				merged = false;
+				long adj = graph.getNeighbourhood(mask);
+				for (int i = 0; i < clumps.size(); i++) {
+					if ((adj & masks.get(i)) != 0) {
+						plan = graph.combine(clumps.get(i), masks.get(i), plan, mask);
+						mask |= masks.remove(i);
+						clumps.remove(i);
+						merged = true;
+						break;
+					}
+				}
+			}
+			clumps.add(plan);
+			masks.add(mask);
+		}
+
+		// disconnected components are combined with products
+		return graph.product(clumps, masks);
+	}
+
+	/**
+	 * Build the left-deep plan encoded by an ordering of the relations
+	 */
+	private static Operator decodeLeftDeep(QueryGraph graph, int[] order) {
+		boolean[] used = new boolean[order.length];
+		Operator plan = null;
+		long mask = 0;
+
+		for (int step = 0; step < order.length; step++) {
+			long adj = graph.getNeighbourhood(mask);
+			int next = -1;
+			for (int k = 0; k < order.length; k++) {
+				if (used[k]) continue;
+				if (next < 0) next = k;
+				if ((adj & (1L << order[k])) != 0) {
+					next = k;
+					break;
+				}
+			}
+			used[next] = true;
+
+			Operator rel = graph.getRelation(order[next]);
+			long relMask = 1L << order[next];
+			plan = plan == null ? rel : graph.combine(plan, mask, rel, relMask);
+			mask |= relMask;
+		}
+		return plan;
+	}
+
+	private static void swap(int[] order, int i, int j) {
+		int temp = order[i];
+		order[i] = order[j];
+		order[j] = temp;
+	}
+}
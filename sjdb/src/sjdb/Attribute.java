@@ -10,24 +10,73 @@ package sjdb;
 public class Attribute {
 
 	private String name;
-	private int values;
+	private long values;
+	private int id; // dense index assigned by the Catalogue, or -1
+	private Synopsis synopsis; // distribution of the values, or null if unknown
 
 	public Attribute(String name) {
 		this.name = name;
 		this.values = 0;
+		this.id = -1;
 	}
 	/**
 	 * @param name
 	 * @param values
 	 */
-	public Attribute(String name, int values) {
+	public Attribute(String name, long values) {
 		this.name = name;
 		this.values = values;
+		this.id = -1;
+	}
+	
+	/**
+	 * @param name
+	 * @param values
+	 * @param id
+	 */
+	Attribute(String name, long values, int id) {
+		this(name, values, id, null);
+	}
+	
+	/**
+	 * @param name
+	 * @param values
+	 * @param synopsis
+	 */
+	public Attribute(String name, long values, Synopsis synopsis) {
+		this(name, values, -1, synopsis);
+	}
+	
+	/**
+	 * @param name
+	 * @param values
+	 * @param id
+	 * @param synopsis
+	 */
+	Attribute(String name, long values, int id, Synopsis synopsis) {
+		this.name = name;
+		this.values = values;
+		this.id = id;
+		this.synopsis = synopsis;
 	}
 	
 	public Attribute(Attribute attr) {
 		this.name = attr.name;
 		this.values = attr.values;
+		this.id = attr.id;
+		this.synopsis = attr.synopsis;
+	}
+	
+	/**
+	 * Create a copy of an attribute with a different number of distinct values
+	 * @param attr
+	 * @param values
+	 */
+	public Attribute(Attribute attr, long values) {
+		this.name = attr.name;
+		this.values = values;
+		this.id = attr.id;
+		this.synopsis = attr.synopsis;
 	}
 	
 	/**
@@ -40,10 +89,34 @@ public class Attribute {
 	/**
 	 * @return the number of distinct values taken by this attribute
 	 */
-	public int getValueCount() {
+	public long getValueCount() {
 		return values;
 	}
 	
+	/**
+	 * Return the distribution of the values of this attribute. Copies of an
+	 * attribute made by the Estimator keep the synopsis of the original, on
+	 * the assumption that a predicate on one attribute does not change the
+	 * distribution of another.
+	 * 
+	 * @return the synopsis of the attribute, or null if there is none
+	 */
+	public Synopsis getSynopsis() {
+		return synopsis;
+	}
+	
+	/**
+	 * Return the index of this attribute in the catalogue that created it.
+	 * Indices are dense, starting from zero, so sets of attributes can be
+	 * held as bitsets. Attributes created by name only (and not looked up
+	 * in a catalogue) have no index.
+	 * 
+	 * @return the index of the attribute, or -1 if it has none
+	 */
+	public int getId() {
+		return id;
+	}
+	
 	
 	@Override
 	public int hashCode() {
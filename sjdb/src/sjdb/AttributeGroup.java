@@ -0,0 +1,64 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class records the number of distinct combinations of the values of
+ * a group of attributes of a named relation, V(R,{A1,...,Ak}). When the
+ * attributes are correlated (a city and its postcode, say) this is far
+ * less than the product of their value counts, which is what the Estimator
+ * would otherwise assume. Groups are immutable.
+ */
+public class AttributeGroup {
+	private List<Attribute> attributes;
+	private long values;
+
+	/**
+	 * Create a new group.
+	 * @param attributes Attributes in the group, at least two
+	 * @param values Number of distinct combinations of their values
+	 */
+	public AttributeGroup(List<Attribute> attributes, long values) {
+		if (attributes.size() < 2) {
+			throw new IllegalArgumentException("Expected at least two attributes in a group: " + attributes);
+		}
+		this.attributes = Collections.unmodifiableList(new ArrayList<Attribute>(attributes));
+		this.values = values;
+	}
+
+	/**
+	 * @return the attributes in the group
+	 */
+	public List<Attribute> getAttributes() {
+		return this.attributes;
+	}
+
+	/**
+	 * @return the number of distinct combinations of the values of the attributes
+	 */
+	public long getValueCount() {
+		return this.values;
+	}
+
+	/**
+	 * Render the group in the form used in the serialised catalogue:
+	 * <attr name>+...+<attr name>,<value count>
+	 */
+	public String render() {
+		StringBuilder ret = new StringBuilder();
+		for (Attribute attr : this.attributes) {
+			ret.append(ret.length() > 0 ? "+" : "").append(attr.getName());
+		}
+		return ret.append(',').append(this.values).toString();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return render();
+	}
+}
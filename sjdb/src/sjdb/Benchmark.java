@@ -0,0 +1,225 @@
+package sjdb;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measure the time and memory allocated per operation of the catalogue
+ * parser, the query parser, the estimator and the optimiser, over the
+ * shipped queries (data/q1.txt to data/q5.txt) and over synthetic chain,
+ * star and clique queries of growing size.
+ *
+ * Each case is run repeatedly for a warm-up period, so that it is compiled,
+ * and then measured for a fixed period. Allocation is measured with the
+ * per-thread allocation counter of the HotSpot ThreadMXBean, and is not
+ * reported on JVMs that do not provide it.
+ *
+ * Usage: Benchmark [filter [seconds]]
+ *
+ * Only the cases whose names contain the filter are run, and each is
+ * measured for the given number of seconds (one by default).
+ */
+public class Benchmark {
+	private static final int[] SIZES = { 4, 8, 12, 16 };
+	private static final String[] SHAPES = { "chain", "star", "clique" };
+
+	private static volatile int sink; // results are folded in here, so no work is optimised away
+	private static final Method CURRENT_ALLOCATED = currentAllocated(); // null before JDK 14
+
+	public static void main(String[] args) throws Exception {
+		String filter = args.length > 0 ? args[0] : "";
+		double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+
+		List<Case> cases = new ArrayList<Case>();
+		final Catalogue catalogue = new Catalogue();
+		new CatalogueParser("data/cat.txt", catalogue).parse();
+
+		cases.add(new Case("CatalogueParser.parse", "cat.txt") {
+			int run() throws Exception {
+				Catalogue cat = new Catalogue();
+				new CatalogueParser("data/cat.txt", cat).parse();
+				return cat.getVersion("Person") > 0 ? 1 : 0;
+			}
+		});
+		for (int i = 1; i <= 5; i++) {
+			addQueryCases(cases, catalogue, "q" + i, read(new File("data/q" + i + ".txt")));
+		}
+		for (String shape : SHAPES) {
+			for (int n : SIZES) {
+				WorkloadGenerator generator = new WorkloadGenerator(shape, n);
+				generator.setTuples(10, 1000);
+				Catalogue cat = new Catalogue();
+				generator.populate(cat);
+				addQueryCases(cases, cat, shape + "-" + n, generator.query(1));
+			}
+		}
+
+		System.out.println(String.format("%-24s %-10s %10s %14s %14s %12s",
+				"benchmark", "query", "ops", "us/op", "bytes/op", "MB/s"));
+		for (Case c : cases) {
+			if (!c.toString().contains(filter)) {
+				continue;
+			}
+			try {
+				c.measure(seconds);
+			} catch (Exception e) {
+				System.out.println(String.format("%-24s %-10s failed: %s", c.name, c.input, e));
+			}
+		}
+	}
+
+	/**
+	 * Add the parser, estimator and optimiser cases for one query
+	 */
+	private static void addQueryCases(List<Case> cases, final Catalogue catalogue, String name, final String query) throws Exception {
+		final Operator plan = parse(catalogue, query);
+
+		cases.add(new Case("QueryParser.parse", name) {
+			int run() throws Exception {
+				return parse(catalogue, query).hashCode();
+			}
+		});
+		cases.add(new Case("Estimator.getCost", name) {
+			private Estimator estimator = new Estimator();
+
+			int run() {
+				forget(plan); // costs are remembered on the operators
+				return Long.hashCode(this.estimator.getCost(plan));
+			}
+		});
+		cases.add(new Case("Optimiser.optimise", name) {
+			private Optimiser optimiser = new Optimiser(catalogue);
+
+			int run() {
+				return this.optimiser.optimise(plan).hashCode();
+			}
+		});
+	}
+
+	/**
+	 * Forget the costs remembered on every operator of a plan
+	 */
+	private static void forget(Operator op) {
+		op.setCost(-1);
+		if (!(op instanceof Scan)) {
+			for (Operator input : op.getInputs()) {
+				forget(input);
+			}
+		}
+	}
+
+	private static Operator parse(Catalogue catalogue, String query) throws Exception {
+		return new QueryParser(catalogue, new StringReader(query)).parse();
+	}
+
+	private static String read(File file) throws Exception {
+		StringBuilder text = new StringBuilder();
+		FileReader reader = new FileReader(file);
+		try {
+			char[] buf = new char[1024];
+			for (int n = reader.read(buf); n > 0; n = reader.read(buf)) {
+				text.append(buf, 0, n);
+			}
+		} finally {
+			reader.close();
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Return the number of bytes allocated so far by the current thread,
+	 * or -1 if the JVM does not count them. The thread id (and Thread.getId,
+	 * deprecated since JDK 19) is only needed before JDK 14, which has no
+	 * getCurrentThreadAllocatedBytes.
+	 */
+	@SuppressWarnings("deprecation")
+	private static long allocated() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+		if (CURRENT_ALLOCATED != null) {
+			try {
+				return (Long) CURRENT_ALLOCATED.invoke(bean);
+			} catch (ReflectiveOperationException e) {
+				return -1;
+			}
+		}
+		return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Return com.sun.management.ThreadMXBean.getCurrentThreadAllocatedBytes,
+	 * or null if the JVM does not have it
+	 */
+	private static Method currentAllocated() {
+		try {
+			return com.sun.management.ThreadMXBean.class.getMethod("getCurrentThreadAllocatedBytes");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * A single benchmark: one operation on one input.
+	 */
+	private static abstract class Case {
+		private String name;
+		private String input;
+
+		Case(String name, String input) {
+			this.name = name;
+			this.input = input;
+		}
+
+		/**
+		 * Run the operation once, returning a value derived from its result
+		 */
+		abstract int run() throws Exception;
+
+		void measure(double seconds) throws Exception {
+			long period = (long) (seconds * 1e9);
+			loop(period / 2); // warm up
+
+			long bytes = allocated();
+			long start = System.nanoTime();
+			long ops = loop(period);
+			long elapsed = System.nanoTime() - start;
+			bytes = bytes < 0 ? -1 : allocated() - bytes;
+
+			System.out.println(String.format("%-24s %-10s %10d %14.2f %14s %12s", this.name, this.input, ops,
+					elapsed / 1e3 / ops,
+					bytes < 0 ? "-" : String.valueOf(bytes / ops),
+					bytes < 0 ? "-" : String.format("%.1f", bytes / 1e6 / (elapsed / 1e9))));
+		}
+
+		/**
+		 * Run the operation until the given time has passed, at least once
+		 */
+		private long loop(long nanos) throws Exception {
+			long end = System.nanoTime() + nanos;
+			long ops = 0;
+			int result = 0;
+			do {
+				result += run();
+				ops++;
+			} while (System.nanoTime() < end);
+			sink += result;
+			return ops;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return this.name + " " + this.input;
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class implements a transformation-based (Cascades-style) join
+ * enumerator. An initial plan is copied into a Memo, and join commutativity
+ * and associativity are then applied to the groups of the memo until no new
+ * alternatives appear. Because equivalent sub-plans share a group, each
+ * sub-join is explored and costed once, however many plans contain it.
+ *
+ * Associativity is only allowed to create groups over connected relations
+ * (or over whole connected components), so no new cross products are
+ * introduced.
+ *
+ * If the graph is restricted to left-deep plans, the rules used are instead
+ * commutativity of the lowest join and the left join exchange
+ * (LL x LR) x R -> (LL x R) x LR, which keep every plan left-deep. A group
+ * may then also cover whole components plus a connected part of one more.
+ *
+ * Costing is seeded with the plan found by GreedyEnumerator, and
+ * alternatives that cannot beat the best plan so far are not built.
+ *
+ * If the graph expires, exploration and costing stop and the cheapest
+ * complete plan costed so far (or the greedy plan) is returned.
+ */
+public class CascadesEnumerator implements PlanEnumerator {
+
+	public CascadesEnumerator() {
+		// empty constructor
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.PlanEnumerator#enumerate(sjdb.QueryGraph)
+	 */
+	public Operator enumerate(QueryGraph graph) {
+		Operator seed = new GreedyEnumerator().enumerate(graph);
+		Memo memo = Memo.seeded(graph);
+		memo.setBound(graph.getCost(seed));
+		List<Long> components = components(graph);
+
+		Memo.Group root = initial(memo, components);
+		explore(memo, components);
+
+		Operator result = memo.optimise(root);
+		return result != null ? result : seed;
+	}
+
+	/**
+	 * Copy a cross product free left-deep plan into the memo: each component
+	 * is joined in breadth-first order, and the components are then combined
+	 * with products (for left-deep plans, the next component is joined onto
+	 * the plan so far one relation at a time).
+	 */
+	private static Memo.Group initial(Memo memo, List<Long> components) {
+		QueryGraph graph = memo.getGraph();
+		Memo.Group root = null;
+
+		for (long component : components) {
+			Memo.Group group = graph.isLeftDeep() ? root : null;
+			long mask = 0;
+			while (mask != component) {
+				long next = mask == 0 ? component : graph.getNeighbourhood(mask) & component;
+				next &= -next; // one neighbouring relation
+				Memo.Group rel = memo.getGroup(next);
+				if (group == null) {
+					group = rel;
+				} else {
+					Memo.Group joined = memo.getGroup(group.getMask() | next);
+					joined.addExpression(group, rel);
+					group = joined;
+				}
+				mask |= next;
+			}
+
+			if (graph.isLeftDeep() || root == null) {
+				root = group;
+			} else {
+				Memo.Group joined = memo.getGroup(root.getMask() | group.getMask());
+				joined.addExpression(root, group);
+				root = joined;
+			}
+		}
+		return root;
+	}
+
+	/**
+	 * Apply the transformation rules to every expression in the memo until
+	 * a fixed point is reached. Each expression remembers how many of its
+	 * left input's alternatives it has already been associated with, so
+	 * repeated passes only look at new alternatives.
+	 */
+	private static void explore(Memo memo, List<Long> components) {
+		QueryGraph graph = memo.getGraph();
+		List<Memo.Group> groups = memo.getGroups();
+		boolean changed = true;
+
+		while (changed) {
+			changed = false;
+			for (int g = 0; g < groups.size(); g++) {
+				if (graph.isExpired()) return;
+				Memo.Group group = groups.get(g);
+				List<Memo.Expression> exprs = group.getExpressions();
+
+				for (int e = 0; e < exprs.size(); e++) {
+					Memo.Expression expr = exprs.get(e);
+					Memo.Group left = expr.getLeft();
+					Memo.Group right = expr.getRight();
+
+					if (graph.isLeftDeep()) {
+						changed |= applyLeftDeep(memo, components, group, expr);
+						continue;
+					}
+
+					// commutativity: L x R -> R x L
+					if (!expr.commuted) {
+						expr.commuted = true;
+						changed |= group.addExpression(right, left);
+					}
+
+					// associativity: (LL x LR) x R -> LL x (LR x R)
+					List<Memo.Expression> leftExprs = left.getExpressions();
+					for (; expr.leftSeen < leftExprs.size(); expr.leftSeen++) {
+						Memo.Expression inner = leftExprs.get(expr.leftSeen);
+						long mask = inner.getRight().getMask() | right.getMask();
+						if (!allowed(graph, components, mask)) continue;
+
+						Memo.Group sub = memo.getGroup(mask);
+						changed |= sub.addExpression(inner.getRight(), right);
+						changed |= group.addExpression(inner.getLeft(), sub);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Apply the left-deep rules to one expression
+	 */
+	private static boolean applyLeftDeep(Memo memo, List<Long> components, Memo.Group group, Memo.Expression expr) {
+		QueryGraph graph = memo.getGraph();
+		Memo.Group left = expr.getLeft();
+		Memo.Group right = expr.getRight();
+		boolean changed = false;
+
+		// commutativity of the lowest join: A x B -> B x A
+		if (!expr.commuted) {
+			expr.commuted = true;
+			if (Long.bitCount(left.getMask()) == 1) {
+				changed |= group.addExpression(right, left);
+			}
+		}
+
+		// left join exchange: (LL x LR) x R -> (LL x R) x LR
+		List<Memo.Expression> leftExprs = left.getExpressions();
+		for (; expr.leftSeen < leftExprs.size(); expr.leftSeen++) {
+			Memo.Expression inner = leftExprs.get(expr.leftSeen);
+			long mask = inner.getLeft().getMask() | right.getMask();
+			if (!allowed(graph, components, mask)) continue;
+
+			Memo.Group sub = memo.getGroup(mask);
+			changed |= sub.addExpression(inner.getLeft(), right);
+			changed |= group.addExpression(sub, inner.getRight());
+		}
+		return changed;
+	}
+
+	/**
+	 * Return true if a group over the given relations would not introduce
+	 * a new cross product
+	 */
+	private static boolean allowed(QueryGraph graph, List<Long> components, long mask) {
+		if (graph.isConnected(mask)) {
+			return true;
+		}
+		boolean partial = false;
+		for (long component : components) {
+			long part = mask & component;
+			if (part == 0 || part == component) {
+				continue;
+			}
+			if (graph.isLeftDeep() && !partial && graph.isConnected(part)) {
+				partial = true;
+				continue;
+			}
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Split the relations of a graph into connected components
+	 */
+	private static List<Long> components(QueryGraph graph) {
+		List<Long> components = new ArrayList<Long>();
+		long rest = graph.getAllMask();
+		while (rest != 0) {
+			long component = graph.expand(rest & -rest, graph.getAllMask());
+			components.add(component);
+			rest &= ~component;
+		}
+		return components;
+	}
+}
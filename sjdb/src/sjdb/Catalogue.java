@@ -1,6 +1,9 @@
 package sjdb;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * This class contains the system catalogue for the database; it
@@ -13,8 +16,17 @@ import java.util.HashMap;
  * Attributes, indexed by name.
  * 
  * Note that any statistical information about named relations or
- * the attributes therein is stored on the relations or attributes,
- * and not in the catalogue.
+ * the attributes therein (including samples of their tuples and the
+ * statistics of groups of attributes) is stored on the relations or
+ * attributes, and not in the catalogue. The catalogue does, however, keep a version
+ * number for each named relation, which changes whenever the relation or
+ * one of its attributes is (re)created, so that cached plans that depend
+ * on its statistics can be detected as stale.
+ * 
+ * The catalogue also gives each named relation and each attribute a dense
+ * integer index (see NamedRelation.getId() and Attribute.getId()), so that
+ * sets of them can be held as bitsets. An index is kept when a relation or
+ * attribute with the same name is created again.
  * 
  * @author nmg
  *
@@ -23,11 +35,19 @@ public class Catalogue {
 	
 	private HashMap<String, NamedRelation> relations;
 	private HashMap<String, Attribute> attributes;
+	private HashMap<String, Long> versions;
+	private long version;
+	private HashMap<String, Integer> relationIds;
+	private HashMap<String, Integer> attributeIds;
 
 
 	public Catalogue() {
 		this.relations = new HashMap<String, NamedRelation>();
 		this.attributes = new HashMap<String, Attribute>();
+		this.versions = new HashMap<String, Long>();
+		this.version = 0;
+		this.relationIds = new HashMap<String, Integer>();
+		this.attributeIds = new HashMap<String, Integer>();
 	}
 	
 	/**
@@ -37,9 +57,10 @@ public class Catalogue {
 	 * @param relName
 	 * @param size
 	 */
-	public NamedRelation createRelation(String relName, int size) {
-		NamedRelation reln = new NamedRelation(relName, size);
+	public NamedRelation createRelation(String relName, long size) {
+		NamedRelation reln = new NamedRelation(relName, size, idOf(relationIds, relName));
 		relations.put(relName, reln);
+		versions.put(relName, ++version);
 		return reln;
 	}
 	
@@ -53,13 +74,84 @@ public class Catalogue {
 	 * @param values
 	 * @return
 	 */
-	public Attribute createAttribute(String relName, String attName, int values) {
-		Attribute attr = new Attribute(attName, values);
+	public Attribute createAttribute(String relName, String attName, long values) {
+		return createAttribute(relName, attName, values, null);
+	}
+	
+	/**
+	 * Create a new Attribute with the specified name, number of distinct
+	 * values and synopsis of its distribution, add it to the directory and
+	 * associate it with the specified NamedRelation.
+	 * 
+	 * @param relName
+	 * @param attName
+	 * @param values
+	 * @param synopsis
+	 * @return
+	 */
+	public Attribute createAttribute(String relName, String attName, long values, Synopsis synopsis) {
+		Attribute attr = new Attribute(attName, values, idOf(attributeIds, attName), synopsis);
 		attributes.put(attName, attr);
 		relations.get(relName).addAttribute(attr);
+		versions.put(relName, ++version);
 		return attr;
 	}
 	
+	/**
+	 * Record the number of distinct combinations of the values of a group
+	 * of attributes of the NamedRelation with the specified name. The
+	 * attributes must already have been created.
+	 * 
+	 * @param relName
+	 * @param attNames
+	 * @param values
+	 * @return
+	 */
+	public AttributeGroup createGroup(String relName, List<String> attNames, long values) throws DatabaseException {
+		NamedRelation reln = getRelation(relName);
+		List<Attribute> attrs = new ArrayList<Attribute>(attNames.size());
+		for (String attName : attNames) {
+			attrs.add(attributeOf(reln, attName));
+		}
+		AttributeGroup group = new AttributeGroup(attrs, values);
+		reln.addGroup(group);
+		versions.put(relName, ++version);
+		return group;
+	}
+	
+	/**
+	 * Record a functional dependency of the given degree between two
+	 * attributes of the NamedRelation with the specified name. The
+	 * attributes must already have been created.
+	 * 
+	 * @param relName
+	 * @param determinant
+	 * @param dependent
+	 * @param degree
+	 * @return
+	 */
+	public Dependency createDependency(String relName, String determinant, String dependent, double degree) throws DatabaseException {
+		NamedRelation reln = getRelation(relName);
+		Dependency dependency = new Dependency(attributeOf(reln, determinant), attributeOf(reln, dependent), degree);
+		reln.addDependency(dependency);
+		versions.put(relName, ++version);
+		return dependency;
+	}
+	
+	/**
+	 * Record a sample of the tuples of the NamedRelation with the specified
+	 * name, which the Estimator may use in place of the statistics of its
+	 * attributes (or remove it, if the sample is null). A relation that is
+	 * created again has no sample until one is recorded.
+	 * 
+	 * @param relName
+	 * @param sample
+	 */
+	public void setSample(String relName, Sample sample) {
+		relations.get(relName).setSample(sample);
+		versions.put(relName, ++version);
+	}
+	
 	/**
 	 * Return the NamedRelation with the specified name.
 	 * 
@@ -91,4 +183,72 @@ public class Catalogue {
 		
 		return attr;
 	}
+
+	/**
+	 * Return every NamedRelation in the catalogue, in the order in which
+	 * they were first created.
+	 * 
+	 * @return
+	 */
+	public List<NamedRelation> getRelations() {
+		List<NamedRelation> ret = new ArrayList<NamedRelation>(relations.values());
+		ret.sort(Comparator.comparingInt(NamedRelation::getId));
+		return ret;
+	}
+
+	/**
+	 * Return the version of the statistics for the named relation with the
+	 * specified name, or zero if there is no such relation.
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public long getVersion(String name) {
+		Long v = versions.get(name);
+		return v == null ? 0 : v;
+	}
+
+	/**
+	 * Return the number of attribute indices assigned so far; every
+	 * attribute index is less than this.
+	 * 
+	 * @return
+	 */
+	public int getAttributeCount() {
+		return attributeIds.size();
+	}
+
+	/**
+	 * Return the number of relation indices assigned so far; every
+	 * relation index is less than this.
+	 * 
+	 * @return
+	 */
+	public int getRelationCount() {
+		return relationIds.size();
+	}
+
+	/**
+	 * Return the attribute of a relation with the specified name.
+	 */
+	private static Attribute attributeOf(NamedRelation reln, String attName) throws DatabaseException {
+		int pos = reln.indexOf(new Attribute(attName));
+		if (pos < 0) {
+			throw new DatabaseException("Attribute " + attName + " not found in " + reln);
+		}
+		return reln.getAttributes().get(pos);
+	}
+
+	/**
+	 * Return the index assigned to a name, assigning the next one if the
+	 * name has none.
+	 */
+	private static int idOf(HashMap<String, Integer> ids, String name) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = ids.size();
+			ids.put(name, id);
+		}
+		return id;
+	}
 }
@@ -1,5 +1,6 @@
 package sjdb;
 import java.io.*;
+import java.util.Arrays;
 
 /**
  * This class parses a serialised system catalogue, and uses the
@@ -10,11 +11,37 @@ import java.io.*;
  * 
  * <relation name>:<tuple count>:<attr name>,<value count>:<attr name>,<value count>
  * 
+ * An attribute may also be followed by a synopsis of its distribution
+ * (see Synopsis), as further comma-separated fields:
+ * 
+ * <attr name>,<value count>,mcv=<value>/<fraction>;...,hist=<low>;<high>/<value count>;...
+ * 
+ * giving its most common values, each with the fraction of the tuples that
+ * take it, and an equi-depth histogram of its other values: the lowest
+ * value, then the highest value and the number of distinct values in each
+ * bucket. Both fields are optional, and fields that are not recognised are
+ * ignored, so that catalogues without synopses are read as before.
+ * 
+ * The attributes may be followed by the statistics of groups of
+ * attributes (see AttributeGroup and Dependency), of the forms
+ * 
+ * <attr name>+<attr name>+...,<value count>
+ * <attr name>-><attr name>,<degree>
+ * 
+ * giving the number of distinct combinations of the values of a group of
+ * attributes, and the degree of a functional dependency between two.
+ * 
+ * Samples of the tuples of the relations (see Sample) are kept alongside
+ * the catalogue, in a directory named after the catalogue file with
+ * ".samples" appended, one file <relation name>.csv per relation. Those
+ * of the relations in the catalogue are read too, if the directory exists.
+ * 
  * @author nmg
  */
 public class CatalogueParser {
 	private BufferedReader read;
 	private Catalogue catalogue;
+	private File samples;
 
 	/**
 	 * Create a parser that reads from the file of the given name
@@ -23,6 +50,7 @@ public class CatalogueParser {
 	 */
 	public CatalogueParser(String catFilename, Catalogue catalogue) {
 		this.catalogue = catalogue;
+		this.samples = samplesOf(catFilename);
 		try {
 			this.read = new BufferedReader(new FileReader(catFilename));
 		} catch (Exception e) {
@@ -37,26 +65,115 @@ public class CatalogueParser {
 			while ((line = this.read.readLine()) != null) {
 				parseRelation(line.split(":", 0));
 			}
+			parseSamples();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 	
-	private void parseRelation(String[] parts) {
+	/**
+	 * Return the directory of the samples kept alongside a catalogue file
+	 * @param catFilename
+	 * @return
+	 */
+	public static File samplesOf(String catFilename) {
+		return new File(catFilename + ".samples");
+	}
+	
+	private void parseSamples() throws IOException {
+		if (!this.samples.isDirectory()) {
+			return;
+		}
+		for (NamedRelation relation : catalogue.getRelations()) {
+			File file = new File(this.samples, relation + ".csv");
+			if (file.isFile()) {
+				Reader in = new FileReader(file);
+				try {
+					catalogue.setSample(relation.toString(), Sample.read(in));
+				} finally {
+					in.close();
+				}
+			}
+		}
+	}
+	
+	private void parseRelation(String[] parts) throws DatabaseException {
 		String reln = parts[0];
-		int size = Integer.decode(parts[1]).intValue();
+		long size = Long.decode(parts[1]).longValue();
 		
 		catalogue.createRelation(reln, size);
 		
+		// groups and dependencies refer to attributes, so are created last;
+		// fields are told apart by their names, as values may hold + or ->
 		for (int i = 2; i < parts.length; i++) {
-			parseAttribute(reln, parts[i].split(",", 0));
+			String[] field = parts[i].split(",", 0);
+			if (!field[0].contains("+") && !field[0].contains("->")) {
+				parseAttribute(reln, field);
+			}
+		}
+		for (int i = 2; i < parts.length; i++) {
+			String[] field = parts[i].split(",", 0);
+			if (field[0].contains("->")) {
+				parseDependency(reln, field);
+			} else if (field[0].contains("+")) {
+				parseGroup(reln, field);
+			}
 		}
 	}
 
+	private void parseGroup(String reln, String[] parts) throws DatabaseException {
+		long values = Long.decode(parts[1]).longValue();
+		catalogue.createGroup(reln, Arrays.asList(parts[0].split("\\+", 0)), values);
+	}
+
+	private void parseDependency(String reln, String[] parts) throws DatabaseException {
+		String[] attrs = parts[0].split("->", 0);
+		catalogue.createDependency(reln, attrs[0], attrs[1], Double.parseDouble(parts[1]));
+	}
+
 	private void parseAttribute(String reln, String[] parts) {
 		String attr = parts[0];
-		int values = Integer.decode(parts[1]).intValue();
+		long values = Long.decode(parts[1]).longValue();
+		
+		if (parts.length > 2) {
+			catalogue.createAttribute(reln, attr, values, parseSynopsis(parts));
+		} else {
+			catalogue.createAttribute(reln, attr, values);
+		}
+	}
+
+	private Synopsis parseSynopsis(String[] parts) {
+		String[] mcv = new String[0];
+		String[] hist = new String[0];
+		for (int i = 2; i < parts.length; i++) {
+			if (parts[i].startsWith("mcv=")) {
+				mcv = parts[i].substring(4).split(";", 0);
+			} else if (parts[i].startsWith("hist=")) {
+				hist = parts[i].substring(5).split(";", 0);
+			}
+		}
 		
-		catalogue.createAttribute(reln, attr, values);
+		String[] values = new String[mcv.length];
+		double[] frequencies = new double[mcv.length];
+		for (int i = 0; i < mcv.length; i++) {
+			int slash = mcv[i].lastIndexOf('/');
+			values[i] = mcv[i].substring(0, slash);
+			frequencies[i] = Double.parseDouble(mcv[i].substring(slash + 1));
+		}
+		
+		if (hist.length < 2) {
+			hist = new String[0]; // no buckets
+		}
+		String[] bounds = new String[hist.length];
+		long[] distinct = new long[Math.max(0, hist.length - 1)];
+		if (hist.length > 0) {
+			bounds[0] = hist[0];
+		}
+		for (int i = 1; i < hist.length; i++) {
+			int slash = hist[i].lastIndexOf('/');
+			bounds[i] = hist[i].substring(0, slash);
+			distinct[i - 1] = Long.decode(hist[i].substring(slash + 1)).longValue();
+		}
+		return new Synopsis(values, frequencies, bounds, distinct);
 	}
 }
@@ -0,0 +1,87 @@
+package sjdb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * This class serialises a system catalogue in the form read by
+ * CatalogueParser, one named relation per line, including the synopses
+ * of any attributes that have them and the statistics of any groups of
+ * attributes. The samples of the relations, which
+ * are too large for a line each, are written to files of their own (see
+ * writeSamples()).
+ */
+public class CatalogueWriter {
+	private Writer out;
+
+	/**
+	 * Create a writer that writes to the given stream
+	 * @param out
+	 */
+	public CatalogueWriter(Writer out) {
+		this.out = out;
+	}
+
+	/**
+	 * Write every named relation in a catalogue, in the order in which
+	 * they were first created
+	 * @param catalogue
+	 * @throws IOException
+	 */
+	public void write(Catalogue catalogue) throws IOException {
+		for (NamedRelation relation : catalogue.getRelations()) {
+			write(relation);
+		}
+		this.out.flush();
+	}
+
+	/**
+	 * Write a single named relation
+	 * @param relation
+	 * @throws IOException
+	 */
+	public void write(NamedRelation relation) throws IOException {
+		StringBuilder line = new StringBuilder();
+		line.append(relation.toString()).append(':').append(relation.getTupleCount());
+		for (Attribute attr : relation.getAttributes()) {
+			line.append(':').append(attr.render());
+			if (attr.getSynopsis() != null && attr.getSynopsis().render().length() > 0) {
+				line.append(',').append(attr.getSynopsis().render());
+			}
+		}
+		for (AttributeGroup group : relation.getGroups()) {
+			line.append(':').append(group.render());
+		}
+		for (Dependency dependency : relation.getDependencies()) {
+			line.append(':').append(dependency.render());
+		}
+		this.out.write(line.append('\n').toString());
+	}
+
+	/**
+	 * Write the sample of every named relation in a catalogue that has one
+	 * to the file <relation name>.csv in the given directory, creating it
+	 * if need be, in the form read by Sample.read()
+	 * @param catalogue
+	 * @param directory
+	 * @throws IOException
+	 */
+	public static void writeSamples(Catalogue catalogue, File directory) throws IOException {
+		for (NamedRelation relation : catalogue.getRelations()) {
+			if (relation.getSample() == null) {
+				continue;
+			}
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Cannot create sample directory " + directory);
+			}
+			Writer out = new FileWriter(new File(directory, relation + ".csv"));
+			try {
+				relation.getSample().write(out);
+			} finally {
+				out.close();
+			}
+		}
+	}
+}
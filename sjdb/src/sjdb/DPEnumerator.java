@@ -0,0 +1,195 @@
+package sjdb;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class implements a Selinger-style dynamic programming join
+ * enumerator. Plans are built bottom-up over subsets of the relations in a
+ * QueryGraph, and only the cheapest plan is kept for each subset. Every
+ * split of a subset into two smaller subsets is tried, so bushy plans are
+ * considered and the search takes O(3^n) steps; if the graph is restricted
+ * to left-deep plans, only splits that take off a single relation are tried
+ * and the search takes O(n 2^n) steps.
+ *
+ * Subsets are planned one level (subset size) at a time. The subsets on a
+ * level only depend on the level below, so when a parallelism greater than
+ * one is given they are split across a ForkJoinPool, which the enumerator
+ * keeps for its lifetime and shares between the queries it plans at once
+ * (its worker threads are daemons, and end when idle). Each subset is still
+ * planned by a single task that tries its candidates in a fixed order and
+ * only replaces its best plan with a strictly cheaper one, so the result
+ * does not depend on the number of threads or on scheduling.
+ *
+ * The plan found by GreedyEnumerator gives an upper bound on the cost of
+ * the best plan, and sub-plans that already cost at least as much are
+ * abandoned. If the graph expires, the search stops and the best complete
+ * plan found so far (or the greedy plan) is returned. Worker threads see
+ * an interrupt of the planning thread through the graph, so a parallel
+ * search stops within a level, not only between levels.
+ */
+public class DPEnumerator implements PlanEnumerator {
+
+	// subsets on a level below which a task is not split any further
+	private static final int SPLIT_THRESHOLD = 64;
+
+	private ForkJoinPool pool; // null when planning on the calling thread
+
+	/**
+	 * Create a new enumerator that plans on the calling thread.
+	 */
+	public DPEnumerator() {
+		this(1);
+	}
+
+	/**
+	 * Create a new enumerator that plans each level on the given number of threads.
+	 * @param parallelism Number of worker threads
+	 */
+	public DPEnumerator(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+		}
+		this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.PlanEnumerator#enumerate(sjdb.QueryGraph)
+	 */
+	public Operator enumerate(QueryGraph graph) {
+		int n = graph.size();
+		if (n > 30) {
+			throw new IllegalArgumentException("Too many relations for exhaustive enumeration: " + n);
+		}
+
+		Operator seed = new GreedyEnumerator().enumerate(graph);
+		long bound = graph.getCost(seed);
+
+		Operator[] best = new Operator[1 << n];
+		long[] cost = new long[1 << n];
+
+		for (int i = 0; i < n; i++) {
+			best[1 << i] = graph.getRelation(i);
+			cost[1 << i] = graph.getCost(best[1 << i]);
+		}
+
+		for (int size = 2; size <= n && !graph.isExpired(); size++) {
+			int[] sets = subsets(n, size);
+			Level level = new Level(graph, best, cost, bound, sets, 0, sets.length);
+			if (this.pool == null) {
+				level.compute();
+			} else {
+				this.pool.invoke(level);
+			}
+		}
+
+		Operator result = best[(1 << n) - 1];
+		return result != null ? result : seed;
+	}
+
+	/**
+	 * Find the cheapest plan for one subset, given the best plans of all
+	 * its smaller subsets.
+	 */
+	private static void plan(QueryGraph graph, Operator[] best, long[] cost, long bound, int set) {
+		if (graph.isLeftDeep()) {
+			for (int rest = set; rest != 0 && !graph.isExpired(); rest &= rest - 1) {
+				int rel = rest & -rest;
+				consider(graph, best, cost, bound, set, set & ~rel, rel);
+			}
+		} else {
+			// each split once: the left side holds the lowest relation
+			int low = set & -set;
+			for (int left = (set - 1) & set; left != 0 && !graph.isExpired(); left = (left - 1) & set) {
+				if ((left & low) != 0) {
+					consider(graph, best, cost, bound, set, left, set & ~left);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Combine the best plans of two halves of a subset, keeping the result
+	 * if it is the cheapest plan for the subset so far
+	 */
+	private static void consider(QueryGraph graph, Operator[] best, long[] cost, long bound, int set, int left, int right) {
+		if (best[left] == null || best[right] == null) {
+			return;
+		}
+		long inputs = Estimator.sum(cost[left], cost[right]);
+		if (inputs >= bound) {
+			graph.getListener().candidatePruned(set, inputs, bound);
+			return;
+		}
+		Operator candidate = graph.combine(best[left], left, best[right], right);
+		long temp = graph.getCost(candidate);
+		if (temp >= bound) {
+			graph.getListener().candidatePruned(set, temp, bound);
+			return;
+		}
+
+		if (best[set] == null || temp < cost[set]) {
+			best[set] = candidate;
+			cost[set] = temp;
+		}
+	}
+
+	/**
+	 * Return every subset of n relations with the given size, in increasing order
+	 */
+	private static int[] subsets(int n, int size) {
+		long count = 1;
+		for (int i = 0; i < size; i++) {
+			count = count * (n - i) / (i + 1);
+		}
+		int[] sets = new int[(int) count];
+		int set = (1 << size) - 1;
+		for (int i = 0; i < sets.length; i++) {
+			sets[i] = set;
+			// next larger mask with the same number of bits
+			int low = set & -set;
+			int ripple = set + low;
+			set = (((ripple ^ set) >>> 2) / low) | ripple;
+		}
+		return sets;
+	}
+
+	/**
+	 * A task that plans a range of the subsets on one level.
+	 */
+	private static class Level extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		// tasks are never serialised
+		private transient QueryGraph graph;
+		private transient Operator[] best;
+		private long[] cost;
+		private long bound;
+		private int[] sets;
+		private int lo;
+		private int hi;
+
+		Level(QueryGraph graph, Operator[] best, long[] cost, long bound, int[] sets, int lo, int hi) {
+			this.graph = graph;
+			this.best = best;
+			this.cost = cost;
+			this.bound = bound;
+			this.sets = sets;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.hi - this.lo > SPLIT_THRESHOLD && getPool() != null) {
+				int mid = (this.lo + this.hi) >>> 1;
+				invokeAll(new Level(this.graph, this.best, this.cost, this.bound, this.sets, this.lo, mid),
+						new Level(this.graph, this.best, this.cost, this.bound, this.sets, mid, this.hi));
+				return;
+			}
+			for (int i = this.lo; i < this.hi; i++) {
+				plan(this.graph, this.best, this.cost, this.bound, this.sets[i]);
+			}
+		}
+	}
+}
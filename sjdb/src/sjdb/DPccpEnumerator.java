@@ -0,0 +1,277 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class implements the DPccp join enumerator. Only connected subgraphs
+ * of the join graph and their connected complements are enumerated, so no
+ * cross product is ever considered inside a connected component; products
+ * are only introduced at the end to combine disconnected components.
+ *
+ * See Moerkotte and Neumann, "Analysis of Two Existing and One New Dynamic
+ * Programming Algorithm for the Generation of Optimal Bushy Join Trees
+ * without Cross Products", VLDB 2006.
+ *
+ * If the graph expires, the enumeration stops and the plan found by
+ * GreedyEnumerator is returned, unless a cheaper complete plan has
+ * already been found.
+ *
+ * The work done is proportional to the number of csg-cmp pairs, which is
+ * cubic in the size of a chain query but exponential in that of a star
+ * (a star of n relations has (n-1)2^(n-2) pairs, and takes seconds from
+ * about 16 relations) or a clique. The pairs are first counted, which is
+ * cheap, and a graph with more pairs than the limit is planned by
+ * GreedyEnumerator alone.
+ */
+public class DPccpEnumerator implements PlanEnumerator {
+	private long pairLimit;
+
+	/**
+	 * Create a new enumerator that plans graphs of up to 10000 csg-cmp
+	 * pairs exhaustively (a few hundred milliseconds at most)
+	 */
+	public DPccpEnumerator() {
+		this(10000);
+	}
+
+	/**
+	 * Create a new enumerator.
+	 * @param pairLimit Largest number of csg-cmp pairs enumerated, or 0
+	 * for no limit
+	 */
+	public DPccpEnumerator(long pairLimit) {
+		this.pairLimit = pairLimit;
+	}
+
+	/**
+	 * Count the csg-cmp pairs of a graph, stopping once the count exceeds
+	 * the limit
+	 * @param graph Query graph
+	 * @param limit Largest count of interest
+	 * @return Number of pairs, or limit + 1 if there are more than limit
+	 */
+	public static long countPairs(QueryGraph graph, long limit) {
+		Search search = new Search(graph, limit);
+		search.run();
+		return Math.min(search.pairs, limit + 1);
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.PlanEnumerator#enumerate(sjdb.QueryGraph)
+	 */
+	public Operator enumerate(QueryGraph graph) {
+		Operator seed = new GreedyEnumerator().enumerate(graph);
+		if (this.pairLimit > 0 && countPairs(graph, this.pairLimit) > this.pairLimit) {
+			return seed;
+		}
+		Search search = new Search(graph, Memo.seeded(graph));
+		search.memo.setBound(graph.getCost(seed));
+		search.run();
+
+		Operator result = search.combineComponents();
+		if (result == null || graph.getCost(result) > graph.getCost(seed)) {
+			return seed;
+		}
+		return result;
+	}
+
+	/**
+	 * The state of a single enumeration. Relations are renumbered breadth-first
+	 * within each connected component, as DPccp requires, and all masks used
+	 * here are in that numbering. A search without a memo only counts the
+	 * pairs, up to a limit.
+	 */
+	private static class Search {
+		private QueryGraph graph;
+		private int[] order;
+		private long[] neighbours;
+		private List<Long> components;
+		private Memo memo;
+		private long pairs;
+		private long limit = Long.MAX_VALUE;
+
+		Search(QueryGraph graph, long limit) {
+			this(graph, (Memo) null);
+			this.limit = limit;
+		}
+
+		Search(QueryGraph graph, Memo memo) {
+			int n = graph.size();
+			this.graph = graph;
+			this.order = new int[n];
+			this.neighbours = new long[n];
+			this.components = new ArrayList<Long>();
+			this.memo = memo;
+
+			// breadth-first numbering, one component at a time
+			int[] position = new int[n];
+			boolean[] seen = new boolean[n];
+			int next = 0;
+			for (int start = 0; start < n; start++) {
+				if (seen[start]) continue;
+				long component = 0;
+				int head = next;
+				seen[start] = true;
+				this.order[next++] = start;
+				while (head < next) {
+					int rel = this.order[head];
+					component |= 1L << head;
+					head++;
+					long adj = graph.getNeighbours(rel);
+					for (int j = 0; j < n; j++) {
+						if ((adj & (1L << j)) != 0 && !seen[j]) {
+							seen[j] = true;
+							this.order[next++] = j;
+						}
+					}
+				}
+				this.components.add(component);
+			}
+			for (int i = 0; i < n; i++) {
+				position[this.order[i]] = i;
+			}
+			for (int i = 0; i < n; i++) {
+				long adj = graph.getNeighbours(this.order[i]);
+				for (int j = 0; j < n; j++) {
+					if ((adj & (1L << j)) != 0) this.neighbours[i] |= 1L << position[j];
+				}
+			}
+		}
+
+		/**
+		 * Enumerate every csg-cmp pair, from the highest numbered relation down
+		 */
+		void run() {
+			int n = this.order.length;
+			for (int i = n - 1; i >= 0 && !stopped(); i--) {
+				long start = 1L << i;
+				emitCsg(start);
+				enumerateCsgRec(start, upTo(i));
+			}
+		}
+
+		/**
+		 * Return true if the enumeration should stop early
+		 */
+		private boolean stopped() {
+			return this.pairs > this.limit || this.graph.isExpired();
+		}
+
+		/**
+		 * Join the best plans of the connected components with products.
+		 * Return null if a component was pruned.
+		 */
+		Operator combineComponents() {
+			List<Operator> plans = new ArrayList<Operator>();
+			List<Long> masks = new ArrayList<Long>();
+			for (long part : this.components) {
+				Operator plan = best(part);
+				if (plan == null) return null;
+				plans.add(plan);
+				masks.add(original(part));
+			}
+			return this.graph.product(plans, masks);
+		}
+
+		/**
+		 * Subsets of the neighbourhood are visited in increasing order, so that
+		 * every csg is emitted after all of its connected subsets
+		 */
+		private void enumerateCsgRec(long set, long excluded) {
+			if (stopped()) return;
+			long adj = neighbourhood(set) & ~excluded;
+			if (adj == 0) return;
+			for (long sub = adj & -adj; sub != 0 && !stopped(); sub = (sub - adj) & adj) {
+				emitCsg(set | sub);
+			}
+			for (long sub = adj & -adj; sub != 0 && !stopped(); sub = (sub - adj) & adj) {
+				enumerateCsgRec(set | sub, excluded | adj);
+			}
+		}
+
+		private void emitCsg(long set) {
+			long excluded = set | upTo(Long.numberOfTrailingZeros(set));
+			long adj = neighbourhood(set) & ~excluded;
+			for (int i = 63 - Long.numberOfLeadingZeros(adj); i >= 0; i--) {
+				long rel = 1L << i;
+				if ((adj & rel) == 0) continue;
+				if (stopped()) return;
+				emitPair(set, rel);
+				enumerateCmpRec(set, rel, excluded | (upTo(i) & adj));
+			}
+		}
+
+		private void enumerateCmpRec(long set, long comp, long excluded) {
+			if (stopped()) return;
+			long adj = neighbourhood(comp) & ~excluded;
+			if (adj == 0) return;
+			for (long sub = adj & -adj; sub != 0 && !stopped(); sub = (sub - adj) & adj) {
+				emitPair(set, comp | sub);
+			}
+			for (long sub = adj & -adj; sub != 0 && !stopped(); sub = (sub - adj) & adj) {
+				enumerateCmpRec(set, comp | sub, excluded | adj);
+			}
+		}
+
+		/**
+		 * Combine the best plans for a connected subgraph and its complement
+		 */
+		private void emitPair(long set, long comp) {
+			this.pairs++;
+			if (this.memo == null) {
+				return;
+			}
+			if (this.graph.isLeftDeep() && Long.bitCount(set) > 1 && Long.bitCount(comp) > 1) {
+				return;
+			}
+			if (Long.bitCount(set) == 1 && Long.bitCount(comp) > 1) {
+				long swap = set;
+				set = comp;
+				comp = swap;
+			}
+			Operator left = best(set);
+			Operator right = best(comp);
+			if (left == null || right == null || this.memo.prunes(original(set | comp), left, right)) {
+				return;
+			}
+			Operator candidate = this.graph.combine(left, original(set), right, original(comp));
+			this.memo.offer(original(set | comp), candidate, this.graph.getCost(candidate));
+		}
+
+		/**
+		 * Return the best plan found so far for a connected subgraph,
+		 * or null if every plan for it was pruned
+		 */
+		private Operator best(long set) {
+			Memo.Group group = this.memo.findGroup(original(set));
+			return group == null ? null : group.getBest();
+		}
+
+		private long neighbourhood(long set) {
+			long adj = 0;
+			for (long rest = set; rest != 0; rest &= rest - 1) {
+				adj |= this.neighbours[Long.numberOfTrailingZeros(rest)];
+			}
+			return adj & ~set;
+		}
+
+		/**
+		 * Translate a mask from breadth-first numbering back to graph numbering
+		 */
+		private long original(long set) {
+			long mask = 0;
+			for (long rest = set; rest != 0; rest &= rest - 1) {
+				mask |= 1L << this.order[Long.numberOfTrailingZeros(rest)];
+			}
+			return mask;
+		}
+
+		/**
+		 * Return the mask of relations numbered 0 to i inclusive
+		 */
+		private static long upTo(int i) {
+			return i == 63 ? -1L : (1L << (i + 1)) - 1;
+		}
+	}
+}
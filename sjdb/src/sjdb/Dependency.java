@@ -0,0 +1,73 @@
+package sjdb;
+
+/**
+ * This class records a (soft) functional dependency between two attributes
+ * of a named relation: the value of one attribute determines the value of
+ * the other in a given fraction of the tuples, its degree. A degree of one
+ * is a true functional dependency (a department determines its manager);
+ * a degree of zero says nothing. For attr=value predicates on both
+ * attributes, the Estimator then takes
+ *
+ * sel(A=a and B=b) = sel(A=a)(d + (1 - d)sel(B=b))
+ *
+ * for a dependency A->B of degree d, rather than sel(A=a)sel(B=b).
+ * Dependencies are immutable.
+ */
+public class Dependency {
+	private Attribute determinant;
+	private Attribute dependent;
+	private double degree;
+
+	/**
+	 * Create a new dependency.
+	 * @param determinant Attribute whose value determines the other
+	 * @param dependent Attribute whose value is determined
+	 * @param degree Fraction of the tuples in which the dependency holds,
+	 * from 0 to 1
+	 */
+	public Dependency(Attribute determinant, Attribute dependent, double degree) {
+		if (!(degree >= 0 && degree <= 1)) {
+			throw new IllegalArgumentException("Degree of dependency out of range: " + degree);
+		}
+		this.determinant = determinant;
+		this.dependent = dependent;
+		this.degree = degree;
+	}
+
+	/**
+	 * @return the attribute whose value determines the other
+	 */
+	public Attribute getDeterminant() {
+		return this.determinant;
+	}
+
+	/**
+	 * @return the attribute whose value is determined
+	 */
+	public Attribute getDependent() {
+		return this.dependent;
+	}
+
+	/**
+	 * @return the fraction of the tuples in which the dependency holds
+	 */
+	public double getDegree() {
+		return this.degree;
+	}
+
+	/**
+	 * Render the dependency in the form used in the serialised catalogue:
+	 * <attr name>-><attr name>,<degree>
+	 */
+	public String render() {
+		return this.determinant.getName() + "->" + this.dependent.getName() + "," + this.degree;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return render();
+	}
+}
@@ -1,16 +1,35 @@
 package sjdb;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class Estimator implements PlanVisitor {
 	
-	private int totalCost = 0;
+	private static final double RANGE_SELECTIVITY = 1.0 / 3; // attr<value, with no synopsis
+	private static final double BETWEEN_SELECTIVITY = 1.0 / 4; // attr BETWEEN value AND value, with no synopsis
+	
+	private boolean sampling; // estimate from the samples of the scanned relations, where they have them
 	
 	public Estimator() {
 		// empty constructor
 	}
+	
+	/*
+	 * Create an estimator that, if sampling is true, estimates selects over
+	 * a scan and joins of two such inputs by evaluating their predicates
+	 * against the samples of the scanned relations (see sample), so that
+	 * correlated predicates are not taken to be independent. Operators over
+	 * relations without a sample are estimated as usual.
+	 */
+	public Estimator(boolean sampling) {
+		this.sampling = sampling;
+	}
 
 	/* Scan
 	 * Create output relation on Scan operator
@@ -24,11 +43,10 @@ public class Estimator implements PlanVisitor {
 		Iterator<Attribute> iter = input.getAttributes().iterator(); //only the name of the attribute is significant
 		while (iter.hasNext()) { // True if the iteration has more elements
 			Attribute attr = iter.next();
-			output.addAttribute(new Attribute(attr)); // add attribute to local record
+			output.addAttribute(attr); // attributes are immutable, so they can be shared
 		}
 		
 		op.setOutput(output);
-		totalCost += output.getTupleCount();
 	}
 
 ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -48,16 +66,14 @@ public class Estimator implements PlanVisitor {
 
 		// Add an attribute to this relation when the list of attributes contained in this relation is equal to the attributes projected by this operator
 		for(Attribute attribute1 : op.getAttributes()){ // Return the list of attributes projected by this operator
-			for (Attribute attribute2 : input.getAttributes()) { // Return the list of attributes contained in this relation
-				if (attribute1.equals(attribute2)) { 
-					output.addAttribute(new Attribute(attribute2.getName(), attribute2.getValueCount()));
-				}
+			int pos = input.indexOf(attribute1); // Return the position of the attribute in this relation
+			if (pos >= 0) { 
+				output.addAttribute(input.getAttributes().get(pos));
 			}
 		}
 		
 		// Set the relation produced by this operator as output.
 		op.setOutput(output); 
-		totalCost += output.getTupleCount();
 	}
 	
 	//////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -68,6 +84,21 @@ public class Estimator implements PlanVisitor {
 	 *
 	 * For predicates of the form attr=attr:
 	 * T(σA=B(R)) = T(R)/max(V(R,A),V(R,B)), V(σA=B(R), A) = V(σA=B(R), B) = min(V(R, A), V(R, B)
+	 *
+	 * When the attributes have synopses, T(R) is instead scaled by the
+	 * selectivity they give (see getSelectivity). When the select is one of
+	 * several over the same named relation that has statistics of groups of
+	 * attributes, T(R) is instead scaled by the selectivity of its predicate
+	 * given the others (see conditional), but the estimate is no less than
+	 * the one above. The conditional selectivity is computed from the counts
+	 * of the named relation, while V(R,A) above is that of the input, which
+	 * is no more than T(R); correlated predicates select no fewer tuples than
+	 * independent ones, so the estimate does not collapse to 0 when the
+	 * conditional selectivity is below 1/T(R).
+	 *
+	 * For other predicates P (ranges, inequalities, IN lists and disjunctions):
+	 * T(σP(R)) = T(R)sel(P), V(σP(R), A) = V(R,A)sel(P) for a range on A,
+	 * V(σA IN (c1..cn)(R), A) = n, V(σA<>c(R), A) = V(R,A)-1
 	 */
 	public void visit(Select op) {
 		
@@ -76,9 +107,9 @@ public class Estimator implements PlanVisitor {
 		Predicate predicate;
 		Attribute left;
 		Attribute right;
-		int left_val;
-		int right_val;
-		int val_count;
+		long left_val;
+		long right_val;
+		long val_count;
 		
 		left = null;
 		right = null;
@@ -86,6 +117,13 @@ public class Estimator implements PlanVisitor {
 		predicate = op.getPredicate();
 
 		input = op.getInput().getOutput();
+		
+		/* For other predicates: */
+		if (!predicate.equalsValue() && !predicate.equalsAttribute()) {
+			op.setOutput(sample(op, restrict(input, predicate)));
+			return;
+		}
+		
 		left = input.getAttribute(predicate.getLeftAttribute());
 		left_val = left.getValueCount();
 		
@@ -93,12 +131,23 @@ public class Estimator implements PlanVisitor {
 		/*For predicates of the form attr=val:*/
 		if(predicate.equalsValue()) {
 			
-			int Tr; 
-			int Vr;
+			long Tr; 
+			long Vr;
 			Tr = input.getTupleCount();
 			Vr = left_val;
 
-			output = new Relation(Tr/Vr); // T(σA=c(R)) = T(R)/V(R,A)
+			long independent;
+			if (left.getSynopsis() == null) {
+				independent = Tr/Math.max(1, Vr); // T(σA=c(R)) = T(R)/V(R,A)
+			} else {
+				independent = scale(Tr, getSelectivity(left, predicate.getRightValue())); // T(σA=c(R)) = T(R)sel(A=c)
+			}
+			double sel = conditional(op);
+			if (sel >= 0) {
+				output = new Relation(Math.max(independent, scale(Tr, sel))); // T(σA=c(R)) = T(R)sel(A=c|P1..Pk)
+			} else {
+				output = new Relation(independent);
+			}
 			val_count = 1; // V(σA=c(R), A) = 1
 
 		/* For predicates of the form attr=attr: */
@@ -107,15 +156,26 @@ public class Estimator implements PlanVisitor {
 			right_val = right.getValueCount();
 
 			// T(σA=B(R)) = T(R)/max(V(R,A),V(R,B)), V(σA=B(R), A) = V(σA=B(R), B) = min(V(R, A), V(R, B)
-			int Tr;
-			int Vr_max;
-			int Vr_min;
+			long Tr;
+			long Vr_max;
+			long Vr_min;
 
 			Tr = input.getTupleCount();
 			Vr_max = Math.max(left_val, right_val);
 			Vr_min = Math.min(left_val, right_val);
 
-			output = new Relation(Tr/Vr_max); // T(σA=B(R)) = T(R)/max(V(R,A),V(R,B))
+			long independent;
+			if (left.getSynopsis() == null || right.getSynopsis() == null) {
+				independent = Tr/Math.max(1, Vr_max); // T(σA=B(R)) = T(R)/max(V(R,A),V(R,B))
+			} else {
+				independent = scale(Tr, getSelectivity(left, right)); // T(σA=B(R)) = T(R)sel(A=B)
+			}
+			double sel = conditional(op);
+			if (sel >= 0) {
+				output = new Relation(Math.max(independent, scale(Tr, sel))); // T(σA=B(R)) = T(R)sel(A=B|P1..Pk)
+			} else {
+				output = new Relation(independent);
+			}
 			val_count = Vr_min; // V(σA=B(R), A) = V(σA=B(R), B) = min(V(R, A), V(R, B)
 		}
 		
@@ -124,18 +184,54 @@ public class Estimator implements PlanVisitor {
 			Attribute atr = iter.next();	
 			// V(σA=B(R), A) = V(σA=B(R), B) = min(V(R, A), V(R, B)																																																			
 			if (atr.equals(left)) {
-				output.addAttribute(new Attribute(atr.getName(),val_count));
+				output.addAttribute(new Attribute(atr,val_count));
 			}
 			else if (atr.equals(right)){
-				output.addAttribute(new Attribute(atr.getName(),val_count));	
+				output.addAttribute(new Attribute(atr,val_count));	
 			}
 			else {
-				output.addAttribute(new Attribute(atr));
+				output.addAttribute(atr);
 			}	
 		}
 		
-		op.setOutput(output);
-		totalCost += output.getTupleCount();
+		op.setOutput(sample(op, output));
+	}
+
+	//////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+	
+	/*
+	 * Estimate the output of a select with a predicate other than attr=val
+	 * and attr=attr
+	 */
+	private Relation restrict(Relation input, Predicate predicate) {
+		double sel = getSelectivity(predicate, input);
+		Relation output = new Relation(scale(input.getTupleCount(), sel)); // T(σP(R)) = T(R)sel(P)
+		
+		Attribute attr = predicate.isDisjunction() || predicate.getRightAttribute() != null ? null : predicate.getLeftAttribute();
+		long val_count = 0;
+		if (attr != null) {
+			long Vr = input.getAttribute(attr).getValueCount();
+			switch (predicate.getComparison()) {
+			case IN:
+				val_count = Math.min(Vr, new HashSet<String>(predicate.getValues()).size());
+				break;
+			case NE:
+				val_count = Math.max(1, Vr - 1);
+				break;
+			default:
+				val_count = Math.max(1, Math.min(Vr, (long) Math.ceil(Vr * sel)));
+				break;
+			}
+		}
+		
+		for (Attribute atr : input.getAttributes()) {
+			if (atr.equals(attr)) {
+				output.addAttribute(new Attribute(atr, val_count));
+			} else {
+				output.addAttribute(atr);
+			}
+		}
+		return output;
 	}
 
 	//////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -154,25 +250,24 @@ public class Estimator implements PlanVisitor {
 		
 		// result of product
 		Relation output;
-		int left_p;
-		int right_p;
+		long left_p;
+		long right_p;
 		left_p = left_in.getTupleCount();
 		right_p = right_in.getTupleCount();
-		output = new Relation(left_p * right_p); // c tuple = left tuple * right tuple
+		output = new Relation(scale(left_p, right_p, 1)); // c tuple = left tuple * right tuple
 		
 		// Left part: adding attributes
 		Iterator<Attribute> iter_left = left_in.getAttributes().iterator(); // Return the list of attributes contained in this relation
 		while (iter_left.hasNext()) {
-			output.addAttribute(new Attribute(iter_left.next())); //adding attributes
+			output.addAttribute(iter_left.next()); //adding attributes
 		}
         // Right part: adding attributes
 		Iterator<Attribute> iter_right = right_in.getAttributes().iterator();
 		while (iter_right.hasNext()){
-			output.addAttribute(new Attribute(iter_right.next()));//adding attributes
+			output.addAttribute(iter_right.next());//adding attributes
 		}
 		
 		op.setOutput(output);
-		totalCost += output.getTupleCount();
 	}
 	
     //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -182,6 +277,13 @@ public class Estimator implements PlanVisitor {
      * (assume that A is an attribute of R and B is an attribute of S)
 	 * Note that, for an attribute C of R that is not a join attribute, V(R⨝A=BS, C) = V(R, C)
 	 * (similarly for an attribute of S that is not a join attribute)
+	 *
+	 * When both join attributes have synopses, T(R)T(S) is instead scaled by
+	 * the selectivity they give (see getSelectivity).
+	 *
+	 * When an input selects attr=val over a named relation with functional
+	 * dependencies or groups of attributes, V(R,A) is first reduced to the
+	 * values of A that go with the values selected (see correlated).
 	 */
 	public void visit(Join op) {
 		
@@ -195,62 +297,51 @@ public class Estimator implements PlanVisitor {
 		left_in = op.getLeft().getOutput();
 		right_in = op.getRight().getOutput();
 		predicate = op.getPredicate(); 
-		attribute_left = new Attribute(predicate.getLeftAttribute().getName()); // left attr != null
-		attribute_right = new Attribute(predicate.getRightAttribute().getName()); // right attr != null
+		attribute_left = predicate.getLeftAttribute(); // left attr != null
+		attribute_right = predicate.getRightAttribute(); // right attr != null
 		
 		// obtain attributes' correct value
-		List<Attribute> att_all = new ArrayList<>();
-		att_all.addAll(left_in.getAttributes()); // Appends all of the elements in the specified collection to the end of this list
-		att_all.addAll(right_in.getAttributes());
-
-		for(Attribute att1 : att_all){
-			if (att1.equals(attribute_left)) {
-				String att1_name;
-				int att1_count;
-				att1_name = att1.getName();
-				att1_count = att1.getValueCount();
-				attribute_left = new Attribute(att1_name, att1_count);
-			} 
-			if (att1.equals(attribute_right)){
-				String att1_name;
-				int att1_count;
-				att1_name = att1.getName();
-				att1_count = att1.getValueCount();
-				attribute_right = new Attribute(att1_name, att1_count);
-			} 
-		}
+		attribute_left = find(left_in, right_in, attribute_left);
+		attribute_right = find(left_in, right_in, attribute_right);
 		
 		// output of T(R⨝A=BS) = T(R)T(S)/max(V(R,A),V(S,B))
 		Relation output;
-		int Tr;
-		int Ts;
-		int Vr;
-		int Vs;
+		long Tr;
+		long Ts;
+		long Vr;
+		long Vs;
 
 		Tr = left_in.getTupleCount(); // T(R)
 		Ts = right_in.getTupleCount();// T(S)
 		Vr = attribute_left.getValueCount(); // V(R,A)
 		Vs = attribute_right.getValueCount(); // V(S,B)
+		Vr = correlated(left_in.hasAttribute(attribute_left) ? op.getLeft() : op.getRight(), attribute_left, Vr);
+		Vs = correlated(right_in.hasAttribute(attribute_right) ? op.getRight() : op.getLeft(), attribute_right, Vs);
 
-		output = new Relation(Tr * Ts / Math.max(Vr, Vs));
+		if (attribute_left.getSynopsis() == null || attribute_right.getSynopsis() == null
+				|| Vr < attribute_left.getValueCount() || Vs < attribute_right.getValueCount()) {
+			output = new Relation(scale(Tr, Ts, Math.max(Vr, Vs)));
+		} else {
+			output = new Relation(scale(scale(Tr, Ts, 1), getSelectivity(attribute_left, attribute_right)));
+		}
 		
 		// Note that, for an attribute C of R that is not a join attribute, V(R_jo,A) = V(R_jo, A) = min(V(R,A), V(S,B))
-		int size1;
-		int output_count;
+		long size1;
+		long output_count;
 		Attribute att_left_jo;
 		Attribute att_right_jo;
 
 		output_count = output.getTupleCount();
 		size1 = Math.min(Math.min(Vr, Vs), output_count);
-		att_left_jo = new Attribute(attribute_left.getName(), size1);
-		att_right_jo = new Attribute(attribute_right.getName(), size1);
+		att_left_jo = new Attribute(attribute_left, size1);
+		att_right_jo = new Attribute(attribute_right, size1);
 		
 		// Left part: adding attributes
 		Iterator<Attribute> iter1 = left_in.getAttributes().iterator();
 		while (iter1.hasNext()) {
 			Attribute att = iter1.next();
 			if(!att.equals(attribute_left)) {
-				output.addAttribute(new Attribute(att));
+				output.addAttribute(att);
 			} 
 			else {
 				output.addAttribute(att_left_jo);
@@ -262,22 +353,502 @@ public class Estimator implements PlanVisitor {
 		while (iter2.hasNext()) {
 			Attribute att = iter2.next();
 			if(!att.equals(attribute_right)){
-				output.addAttribute(new Attribute(att));
+				output.addAttribute(att);
 			} 
 			else {
 				output.addAttribute(att_right_jo);
 			}
 		}
 		
-		op.setOutput(output);
-		totalCost += output.getTupleCount();
+		op.setOutput(sample(op, output));
+	}
+	//////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+	
+	/* Sampling
+	 * For a chain of selects with predicates P1..Pk over a scan of R, m of the n sampled tuples of R satisfying P1..Pk:
+	 * T(σP1..Pk(R)) = T(R)m/n
+	 *
+	 * For a join of two such inputs over R and S (projects are passed through), m pairs of sampled tuples satisfying
+	 * the predicates of both inputs and the join predicate:
+	 * T(σP(R)⨝A=BσQ(S)) = T(R)T(S)m/(n(R)n(S))
+	 *
+	 * If no sampled tuple (or pair) qualifies, the estimate from the statistics is kept, but no larger than that
+	 * for m = 1. The value counts of the attributes are those estimated from the statistics, but no larger
+	 * than the new tuple count.
+	 */
+	private Relation sample(Select op, Relation estimate) {
+		if (!this.sampling) {
+			return estimate;
+		}
+		List<Predicate> predicates = new ArrayList<Predicate>();
+		NamedRelation base = base(op, predicates);
+		Sample sample = base == null ? null : base.getSample();
+		if (sample == null || sample.size() == 0 || !sample.covers(predicates)) {
+			return estimate;
+		}
+		long m = sample.count(predicates);
+		long Tr = base.getTupleCount();
+		return resize(estimate, m > 0 ? scale(Tr, (double) m / sample.size())
+				: Math.min(estimate.getTupleCount(), scale(Tr, 1.0 / sample.size())));
 	}
+	
+	private Relation sample(Join op, Relation estimate) {
+		if (!this.sampling) {
+			return estimate;
+		}
+		List<Predicate> leftPredicates = new ArrayList<Predicate>();
+		List<Predicate> rightPredicates = new ArrayList<Predicate>();
+		NamedRelation left = base(op.getLeft(), leftPredicates);
+		NamedRelation right = base(op.getRight(), rightPredicates);
+		Sample leftSample = left == null ? null : left.getSample();
+		Sample rightSample = right == null ? null : right.getSample();
+		if (leftSample == null || rightSample == null || leftSample.size() == 0 || rightSample.size() == 0
+				|| !leftSample.covers(leftPredicates) || !rightSample.covers(rightPredicates)) {
+			return estimate;
+		}
+		
+		// the join attributes, in the order of the inputs
+		Attribute leftAttr = op.getPredicate().getLeftAttribute();
+		Attribute rightAttr = op.getPredicate().getRightAttribute();
+		if (!leftSample.contains(leftAttr) || !rightSample.contains(rightAttr)) {
+			Attribute swap = leftAttr;
+			leftAttr = rightAttr;
+			rightAttr = swap;
+		}
+		if (!leftSample.contains(leftAttr) || !rightSample.contains(rightAttr)) {
+			return estimate;
+		}
+		
+		long m = leftSample.count(leftPredicates, leftAttr, rightSample, rightPredicates, rightAttr);
+		long TrTs = scale(left.getTupleCount(), right.getTupleCount(), 1);
+		double pairs = (double) leftSample.size() * rightSample.size();
+		return resize(estimate, m > 0 ? scale(TrTs, m / pairs)
+				: Math.min(estimate.getTupleCount(), scale(TrTs, 1 / pairs)));
+	}
+	
+	//////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+	
+	/* Statistics of groups of attributes
+	 * For predicates A1=c1..Ak=ck on attributes of R:
+	 * sel(A1=c1..Ak=ck) = sel(A1=c1)...sel(Ak=ck), except that
+	 * - for a group G of the Ai, sel(G) = 1/V(R,G), but no less than the product of their sel(Ai=ci) and no more
+	 *   than the least of them (larger groups first), and
+	 * - for a dependency Ai->Aj of degree d, sel(Aj=cj) is replaced by d + (1-d)sel(Aj=cj) (stronger ones first)
+	 *
+	 * A select with predicate P over selects with predicates P1..Pk over a scan of R (through projects) then has
+	 * T(σP(σP1..Pk(R))) = T(σP1..Pk(R))sel(P|P1..Pk), where sel(P|P1..Pk) = sel(P1..Pk,P)/sel(P1..Pk)
+	 * for the attr=val predicates among them.
+	 *
+	 * Similarly, a select A=B over selects A1=B1..Ak=Bk over a join A0=B0 of two such inputs over R and S has
+	 * sel(A=B|A0=B0..Ak=Bk) = max(V(R,{A0..Ak}),V(S,{B0..Bk}))/max(V(R,{A0..Ak,A}),V(S,{B0..Bk,B}))
+	 * where V(R,X) = 1/sel(X) for sel(Ai=ci) = 1/V(R,Ai), but no more than T(R).
+	 */
+	
+	/*
+	 * Return the selectivity of the predicate of a select given the
+	 * predicates below it, or -1 if no statistics of groups of attributes
+	 * apply
+	 */
+	private double conditional(Select op) {
+		Predicate predicate = op.getPredicate();
+		List<Predicate> below = new ArrayList<Predicate>();
+		if (predicate.equalsValue()) {
+			NamedRelation base = base(op.getInput(), below);
+			if (base == null || !correlated(base)) {
+				return -1;
+			}
+			Map<Attribute, Double> sels = equalities(base, below);
+			Attribute attr = predicate.getLeftAttribute();
+			if (sels.isEmpty() || sels.containsKey(attr) || !base.hasAttribute(attr)) {
+				return -1;
+			}
+			double given = joint(base, sels);
+			sels.put(attr, getSelectivity(base.getAttribute(attr), predicate.getRightValue()));
+			return given > 0 ? Math.min(1, joint(base, sels) / given) : -1;
+		}
+		
+		// the join keys, from the select down to the join
+		Operator input = op;
+		while (input instanceof Select && ((Select) input).getPredicate().equalsAttribute() || input instanceof Project) {
+			if (input instanceof Select) {
+				below.add(((Select) input).getPredicate());
+			}
+			input = ((UnaryOperator) input).getInput();
+		}
+		if (!(input instanceof Join)) {
+			return -1;
+		}
+		below.add(((Join) input).getPredicate());
+		NamedRelation left = base(((Join) input).getLeft(), new ArrayList<Predicate>());
+		NamedRelation right = base(((Join) input).getRight(), new ArrayList<Predicate>());
+		if (left == null || right == null || !(correlated(left) || correlated(right))) {
+			return -1;
+		}
+		List<Attribute> leftKeys = new ArrayList<Attribute>();
+		List<Attribute> rightKeys = new ArrayList<Attribute>();
+		for (Predicate pred : below) {
+			if (left.hasAttribute(pred.getLeftAttribute()) && right.hasAttribute(pred.getRightAttribute())) {
+				leftKeys.add(pred.getLeftAttribute());
+				rightKeys.add(pred.getRightAttribute());
+			} else if (left.hasAttribute(pred.getRightAttribute()) && right.hasAttribute(pred.getLeftAttribute())) {
+				leftKeys.add(pred.getRightAttribute());
+				rightKeys.add(pred.getLeftAttribute());
+			} else {
+				return -1; // not a join key of these two relations
+			}
+		}
+		// the predicate of the select is first on the list, and the only one not yet applied
+		long given = Math.max(values(left, leftKeys.subList(1, leftKeys.size())), values(right, rightKeys.subList(1, rightKeys.size())));
+		long all = Math.max(values(left, leftKeys), values(right, rightKeys));
+		return Math.min(1, (double) given / Math.max(1, all));
+	}
+	
+	/*
+	 * V(σA1=c1..Ak=ck(R), B) for an attribute B of the named relation scanned by an input (through selects and
+	 * projects) = V(R,B), except that
+	 * - for a dependency Ai->B of degree d, it is no more than 1 + (1-d)(V(R,B)-1), and
+	 * - for a group {Ai,B}, it is no more than V(R,{Ai,B})/V(R,Ai)
+	 */
+	private static long correlated(Operator input, Attribute attr, long values) {
+		List<Predicate> predicates = new ArrayList<Predicate>();
+		NamedRelation base = base(input, predicates);
+		if (base == null || !correlated(base) || !base.hasAttribute(attr)) {
+			return values;
+		}
+		long Vr = base.getAttribute(attr).getValueCount();
+		long ret = values;
+		for (Predicate pred : predicates) {
+			if (!pred.equalsValue() || pred.getLeftAttribute().equals(attr)) {
+				continue;
+			}
+			for (Dependency dependency : base.getDependencies()) {
+				if (dependency.getDeterminant().equals(pred.getLeftAttribute()) && dependency.getDependent().equals(attr)) {
+					ret = Math.min(ret, 1 + Math.round((1 - dependency.getDegree()) * (Vr - 1)));
+				}
+			}
+			for (AttributeGroup group : base.getGroups()) {
+				List<Attribute> attrs = group.getAttributes();
+				if (attrs.size() == 2 && attrs.contains(attr) && attrs.contains(pred.getLeftAttribute())) {
+					long Va = base.getAttribute(pred.getLeftAttribute()).getValueCount();
+					ret = Math.min(ret, (group.getValueCount() + Va - 1) / Math.max(1, Va));
+				}
+			}
+		}
+		return Math.max(1, ret);
+	}
+	
+	/*
+	 * Return true if a named relation has statistics of groups of attributes
+	 */
+	private static boolean correlated(NamedRelation base) {
+		return !base.getGroups().isEmpty() || !base.getDependencies().isEmpty();
+	}
+	
+	/*
+	 * Return the selectivity of each attr=val predicate on an attribute of a
+	 * named relation (the first, if there are several on one attribute)
+	 */
+	private Map<Attribute, Double> equalities(NamedRelation base, List<Predicate> predicates) {
+		Map<Attribute, Double> ret = new LinkedHashMap<Attribute, Double>();
+		for (Predicate pred : predicates) {
+			Attribute attr = pred.getLeftAttribute();
+			if (pred.equalsValue() && !ret.containsKey(attr) && base.hasAttribute(attr)) {
+				ret.put(attr, getSelectivity(base.getAttribute(attr), pred.getRightValue()));
+			}
+		}
+		return ret;
+	}
+	
+	/*
+	 * V(R,{A1..Ak}) = 1/sel(A1..Ak), for sel(Ai=ci) = 1/V(R,Ai), but no more than T(R)
+	 */
+	private static long values(NamedRelation base, List<Attribute> attrs) {
+		Map<Attribute, Double> sels = new LinkedHashMap<Attribute, Double>();
+		for (Attribute attr : attrs) {
+			sels.put(attr, 1.0 / Math.max(1, base.getAttribute(attr).getValueCount()));
+		}
+		double sel = joint(base, sels);
+		return sel * base.getTupleCount() <= 1 ? base.getTupleCount() : Math.max(1, Math.round(1 / sel));
+	}
+	
+	/*
+	 * sel(A1=c1..Ak=ck), given each sel(Ai=ci)
+	 */
+	private static double joint(NamedRelation base, Map<Attribute, Double> sels) {
+		Map<Attribute, Double> rest = new LinkedHashMap<Attribute, Double>(sels);
+		double ret = 1;
+		
+		List<AttributeGroup> groups = new ArrayList<AttributeGroup>(base.getGroups());
+		groups.sort(Comparator.comparingInt(group -> -group.getAttributes().size()));
+		for (AttributeGroup group : groups) {
+			if (!rest.keySet().containsAll(group.getAttributes())) {
+				continue;
+			}
+			double product = 1;
+			double least = 1;
+			for (Attribute attr : new HashSet<Attribute>(group.getAttributes())) {
+				double sel = rest.remove(attr);
+				product *= sel;
+				least = Math.min(least, sel);
+			}
+			ret *= Math.min(least, Math.max(product, 1.0 / Math.max(1, group.getValueCount())));
+		}
+		
+		// an attribute used to determine another is not itself determined, so dependencies in both directions count once
+		Set<Attribute> determinants = new HashSet<Attribute>();
+		while (true) {
+			Dependency strongest = null;
+			for (Dependency dependency : base.getDependencies()) {
+				Attribute dependent = dependency.getDependent();
+				if (sels.containsKey(dependency.getDeterminant()) && rest.containsKey(dependent) && !determinants.contains(dependent)
+						&& !dependent.equals(dependency.getDeterminant()) && (strongest == null || dependency.getDegree() > strongest.getDegree())) {
+					strongest = dependency;
+				}
+			}
+			if (strongest == null) {
+				break;
+			}
+			determinants.add(strongest.getDeterminant());
+			ret *= strongest.getDegree() + (1 - strongest.getDegree()) * rest.remove(strongest.getDependent());
+		}
+		
+		for (double sel : rest.values()) {
+			ret *= sel;
+		}
+		return ret;
+	}
+	
+	/*
+	 * Return the named relation scanned at the bottom of a chain of selects
+	 * and projects, adding the predicates of the selects to the list, or
+	 * null if the chain ends in any other operator
+	 */
+	private static NamedRelation base(Operator op, List<Predicate> predicates) {
+		while (op instanceof Select || op instanceof Project) {
+			if (op instanceof Select) {
+				predicates.add(((Select) op).getPredicate());
+			}
+			op = ((UnaryOperator) op).getInput();
+		}
+		return op instanceof Scan ? (NamedRelation) ((Scan) op).getRelation() : null;
+	}
+	
+	/*
+	 * Return a copy of an estimated relation with a new tuple count
+	 */
+	private static Relation resize(Relation estimate, long tuples) {
+		Relation output = new Relation(tuples);
+		for (Attribute attr : estimate.getAttributes()) {
+			output.addAttribute(attr.getValueCount() > tuples ? new Attribute(attr, Math.max(1, tuples)) : attr);
+		}
+		return output;
+	}
+	
+	/*
+	 * Return the attribute of either input with the same name as the template
+	 * (the right input's if both have one), or the template if neither has
+	 */
+	private static Attribute find(Relation left, Relation right, Attribute template) {
+		int pos = right.indexOf(template);
+		if (pos >= 0) {
+			return right.getAttributes().get(pos);
+		}
+		pos = left.indexOf(template);
+		return pos >= 0 ? left.getAttributes().get(pos) : template;
+	}
+
+	/*
+	 * Selectivity of a predicate of the form attr=val
+	 * sel(A=c) = T(σA=c(R))/T(R) = 1/V(R,A)
+	 *
+	 * Under the uniform assumption the selectivity does not depend on the value,
+	 * so queries that differ only in their literals get the same plan. If the
+	 * attribute has a synopsis, the selectivity of a common value is its
+	 * frequency, and that of any other value is estimated from the histogram
+	 * bucket it falls in.
+	 */
+	public double getSelectivity(Attribute attr, String value) {
+		if (attr.getSynopsis() != null) {
+			return attr.getSynopsis().selectivity(value, attr.getValueCount());
+		}
+		return 1.0 / Math.max(1, attr.getValueCount());
+	}
+
+	/*
+	 * Selectivity of a predicate of the form attr=attr
+	 * sel(A=B) = 1/max(V(R,A),V(S,B))
+	 *
+	 * If both attributes have synopses, the pairs of tuples that match on
+	 * values common to both MCV lists are counted exactly, and the other
+	 * values are taken to be uniform.
+	 */
+	public double getSelectivity(Attribute left, Attribute right) {
+		if (left.getSynopsis() != null && right.getSynopsis() != null) {
+			return Synopsis.selectivity(left.getSynopsis(), left.getValueCount(), right.getSynopsis(), right.getValueCount());
+		}
+		return 1.0 / Math.max(1, Math.max(left.getValueCount(), right.getValueCount()));
+	}
+
+	/*
+	 * Selectivity of any predicate, whose attributes are taken from the given relation
+	 * sel(A<c) = fraction of the values below c, or 1/3 with no synopsis (similarly for <=, >, >=)
+	 * sel(A BETWEEN c AND d) = fraction of the values from c to d, or 1/4 with no synopsis
+	 * sel(A<>c) = 1 - sel(A=c)
+	 * sel(A IN (c1..cn)) = sel(A=c1) + ... + sel(A=cn)
+	 * sel(A<B) = 1/3 (similarly for <=, >, >=), sel(A<>B) = 1 - sel(A=B)
+	 * sel(P OR Q) = 1 - (1 - sel(P))(1 - sel(Q)), assuming P and Q independent
+	 */
+	public double getSelectivity(Predicate predicate, Relation input) {
+		if (predicate.isDisjunction()) {
+			double none = 1;
+			for (Predicate disjunct : predicate.getDisjuncts()) {
+				none *= 1 - getSelectivity(disjunct, input);
+			}
+			return 1 - none;
+		}
+		
+		Attribute attr = input.getAttribute(predicate.getLeftAttribute());
+		if (predicate.getRightAttribute() != null) {
+			Attribute right = input.getAttribute(predicate.getRightAttribute());
+			switch (predicate.getComparison()) {
+			case EQ:
+				return getSelectivity(attr, right);
+			case NE:
+				return 1 - getSelectivity(attr, right);
+			default:
+				return RANGE_SELECTIVITY;
+			}
+		}
+		
+		String value = predicate.getRightValue();
+		switch (predicate.getComparison()) {
+		case EQ:
+			return getSelectivity(attr, value);
+		case NE:
+			return 1 - getSelectivity(attr, value);
+		case LT:
+			return range(attr, null, false, value, false);
+		case LE:
+			return range(attr, null, false, value, true);
+		case GT:
+			return range(attr, value, false, null, false);
+		case GE:
+			return range(attr, value, true, null, false);
+		case BETWEEN:
+			return range(attr, predicate.getValues().get(0), true, predicate.getValues().get(1), true);
+		default: // IN
+			double sel = 0;
+			for (String v : new HashSet<String>(predicate.getValues())) {
+				sel += getSelectivity(attr, v);
+			}
+			return Math.min(1, sel);
+		}
+	}
+
+	/*
+	 * Selectivity of a range of values of an attribute (low or high is null if the range is open)
+	 */
+	private static double range(Attribute attr, String low, boolean lowInclusive, String high, boolean highInclusive) {
+		double guess = low != null && high != null ? BETWEEN_SELECTIVITY : RANGE_SELECTIVITY;
+		if (attr.getSynopsis() == null) {
+			return guess;
+		}
+		return attr.getSynopsis().selectivity(low, lowInclusive, high, highInclusive, guess);
+	}
+
 	/* 
 	 * Find the cheapset cost and plan
+	 *
+	 * The cost of a plan is the sum of the tuple counts output by its operators.
+	 * Costs are remembered on each operator together with the estimator that
+	 * estimated them, so only the operators that have not been costed before
+	 * by an estimator that estimates alike (see estimatesAlike) are visited;
+	 * sub-plans shared between candidate plans are estimated once, and an
+	 * operator costed by the sampling estimator is estimated afresh by the
+	 * formula one. The estimator itself holds no state, so it may be shared
+	 * between threads as long as each new operator is costed by a single
+	 * thread.
+	 */
+	public long getCost(Operator plan) {
+		if (plan.getCost() >= 0 && estimatesAlike(plan.getEstimator())) {
+			return plan.getCost();
+		}
+		
+		long cost = 0;
+		if (!(plan instanceof Scan)) {
+			for (Operator input : plan.getInputs()) {
+				cost = sum(cost, getCost(input));
+			}
+		}
+		estimate(plan);
+		cost = sum(cost, plan.getOutput().getTupleCount());
+		
+		plan.setCost(cost, this);
+		return cost;
+	}
+
+	/*
+	 * True if another estimator gives the same estimates as this one, so
+	 * that the costs it remembered on operators can be reused
 	 */
-	public int getCost(Operator plan) {
-		this.totalCost = 0;
-		plan.accept(this);		
-		return this.totalCost;
+	boolean estimatesAlike(Estimator other) {
+		return other == this || (other != null && other.sampling == this.sampling);
+	}
+	
+	/*
+	 * Saturating arithmetic on tuple counts and costs
+	 *
+	 * Counts and costs are non-negative longs. Products of tuple counts
+	 * overflow quickly on large queries (a product of a few dozen relations
+	 * of a thousand tuples each is far beyond a long), so every operation
+	 * that may overflow clamps its result to Long.MAX_VALUE instead: a plan
+	 * whose estimate saturates is then simply as expensive as any plan can
+	 * be, and never looks cheap because its cost wrapped around.
+	 */
+
+	/*
+	 * a+b, or Long.MAX_VALUE if that overflows
+	 */
+	static long sum(long a, long b) {
+		long r = a + b;
+		return r < 0 ? Long.MAX_VALUE : r;
+	}
+
+	/*
+	 * a*b/d, rounded down, or Long.MAX_VALUE if that overflows. The result
+	 * is exact whenever a*b fits in a long, so small estimates are the same
+	 * as with plain integer arithmetic; otherwise it is computed in floating
+	 * point, which is accurate to a few parts in 10^16.
+	 */
+	static long scale(long a, long b, long d) {
+		d = Math.max(1, d);
+		if (a == 0 || b <= Long.MAX_VALUE / a) {
+			return a * b / d;
+		}
+		return (long) ((double) a * b / d); // the cast saturates at Long.MAX_VALUE
+	}
+
+	/*
+	 * t*sel, rounded to the nearest count, or Long.MAX_VALUE if that overflows
+	 */
+	static long scale(long t, double sel) {
+		return Math.round(t * sel); // rounding saturates at Long.MAX_VALUE
+	}
+
+	/*
+	 * Estimate the output of a single operator whose inputs are already estimated
+	 */
+	private void estimate(Operator op) {
+		if (op instanceof Scan) {
+			visit((Scan) op);
+		} else if (op instanceof Project) {
+			visit((Project) op);
+		} else if (op instanceof Select) {
+			visit((Select) op);
+		} else if (op instanceof Product) {
+			visit((Product) op);
+		} else if (op instanceof Join) {
+			visit((Join) op);
+		}
 	}
 }
@@ -0,0 +1,78 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class implements greedy operator ordering (GOO). Starting with one
+ * plan per relation, the pair of plans whose combination produces the fewest
+ * tuples is repeatedly joined, until a single plan is left. Pairs joined by
+ * a predicate are always preferred to cross products.
+ *
+ * If the graph is restricted to left-deep plans, only the single partial
+ * plan may be extended, one relation at a time.
+ *
+ * The search takes O(n^3) combinations and may build bushy plans; it is
+ * used for queries that are too large for exhaustive enumeration, and to
+ * provide an initial upper bound for the exhaustive enumerators. Since
+ * the other enumerators fall back on its plan, it always runs to completion,
+ * even if the graph has expired.
+ */
+public class GreedyEnumerator implements PlanEnumerator {
+
+	public GreedyEnumerator() {
+		// empty constructor
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.PlanEnumerator#enumerate(sjdb.QueryGraph)
+	 */
+	public Operator enumerate(QueryGraph graph) {
+		List<Operator> plans = new ArrayList<Operator>();
+		List<Long> masks = new ArrayList<Long>();
+		for (int i = 0; i < graph.size(); i++) {
+			plans.add(graph.getRelation(i));
+			masks.add(1L << i);
+		}
+
+		while (plans.size() > 1) {
+			Operator best = null;
+			boolean bestJoined = false;
+			int bestLeft = -1;
+			int bestRight = -1;
+
+			int composite = -1;
+			for (int i = 0; i < masks.size(); i++) {
+				if (Long.bitCount(masks.get(i)) > 1) composite = i;
+			}
+
+			for (int i = 0; i < plans.size(); i++) {
+				long adj = graph.getNeighbourhood(masks.get(i));
+				for (int j = i + 1; j < plans.size(); j++) {
+					boolean joined = (adj & masks.get(j)) != 0;
+					if (bestJoined && !joined) continue;
+					if (graph.isLeftDeep() && composite >= 0 && i != composite && j != composite) continue;
+
+					// a partial plan always goes on the left
+					int left = j == composite ? j : i;
+					int right = left == i ? j : i;
+					Operator candidate = graph.combine(plans.get(left), masks.get(left), plans.get(right), masks.get(right));
+					if (best == null || (joined && !bestJoined)
+							|| candidate.getOutput().getTupleCount() < best.getOutput().getTupleCount()) {
+						best = candidate;
+						bestJoined = joined;
+						bestLeft = i;
+						bestRight = j;
+					}
+				}
+			}
+
+			plans.set(bestLeft, best);
+			masks.set(bestLeft, masks.get(bestLeft) | masks.get(bestRight));
+			plans.remove(bestRight);
+			masks.remove(bestRight);
+		}
+
+		return plans.get(0);
+	}
+}
@@ -0,0 +1,106 @@
+package sjdb;
+
+/**
+ * This class implements a HyperLogLog sketch, which estimates the number of
+ * distinct values in a stream in a fixed amount of memory.
+ *
+ * Each value is hashed to 64 bits; the top bits of the hash pick one of
+ * 2^precision registers, and the register keeps the largest number of
+ * leading zeros (plus one) seen in the remaining bits. The estimate is the
+ * harmonic mean of the registers, with linear counting used while many
+ * registers are still empty. With the default precision of 12 the sketch
+ * takes 4KB and its relative standard error is about 1.6%; each extra bit
+ * of precision doubles the memory and divides the error by the square root
+ * of two.
+ *
+ * Sketches of the same precision can be merged, giving the sketch of the
+ * union of their streams.
+ */
+public class HyperLogLog {
+	private int precision;
+	private byte[] registers;
+
+	/**
+	 * Create a new sketch with a precision of 12
+	 */
+	public HyperLogLog() {
+		this(12);
+	}
+
+	/**
+	 * Create a new sketch.
+	 * @param precision Number of bits of the hash that pick a register, from 4 to 18
+	 */
+	public HyperLogLog(int precision) {
+		if (precision < 4 || precision > 18) {
+			throw new IllegalArgumentException("Precision out of range: " + precision);
+		}
+		this.precision = precision;
+		this.registers = new byte[1 << precision];
+	}
+
+	/**
+	 * Add a value to the sketch
+	 * @param value Value
+	 */
+	public void add(String value) {
+		long hash = hash(value);
+		int register = (int) (hash >>> (64 - this.precision));
+		long rest = hash << this.precision;
+		int rank = Math.min(Long.numberOfLeadingZeros(rest), 64 - this.precision) + 1;
+		if (rank > this.registers[register]) {
+			this.registers[register] = (byte) rank;
+		}
+	}
+
+	/**
+	 * Add the values of another sketch to this one
+	 * @param other Sketch of the same precision
+	 */
+	public void merge(HyperLogLog other) {
+		if (other.precision != this.precision) {
+			throw new IllegalArgumentException("Cannot merge sketches of precision " + this.precision + " and " + other.precision);
+		}
+		for (int i = 0; i < this.registers.length; i++) {
+			this.registers[i] = (byte) Math.max(this.registers[i], other.registers[i]);
+		}
+	}
+
+	/**
+	 * @return the estimated number of distinct values added
+	 */
+	public long estimate() {
+		int m = this.registers.length;
+		double sum = 0;
+		int zeros = 0;
+		for (byte r : this.registers) {
+			sum += 1.0 / (1L << r);
+			if (r == 0) zeros++;
+		}
+		double alpha = 0.7213 / (1 + 1.079 / m);
+		double estimate = alpha * m * m / sum;
+		if (estimate <= 2.5 * m && zeros > 0) {
+			estimate = m * Math.log((double) m / zeros); // linear counting
+		}
+		return Math.round(estimate);
+	}
+
+	/**
+	 * Hash a string to 64 bits: FNV-1a over its characters, followed by
+	 * the finalisation step of MurmurHash3 so every bit depends on every
+	 * character
+	 */
+	static long hash(String value) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			h ^= value.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,281 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class implements the memo used by the plan enumerators. Logically
+ * equivalent sub-plans are collapsed into a single group, which records the
+ * logical alternatives for producing it and the cheapest plan found so far.
+ *
+ * A group is identified by the set of relations it covers. Every predicate
+ * is applied as soon as all of its relations are present (see
+ * QueryGraph.combine), so the set of applied predicates is implied by the
+ * relation set and two sub-plans over the same relations are equivalent.
+ *
+ * The memo also holds the cost of the cheapest complete plan known so far.
+ * Since the cost of a plan includes the cost of each of its sub-plans, any
+ * sub-plan that already costs at least this much can be pruned.
+ */
+public class Memo {
+	private QueryGraph graph;
+	private HashMap<Long, Group> groups;
+	private List<Group> order;
+	private long bound;
+
+	/**
+	 * Create a new empty memo; see seeded
+	 * @param graph Query graph being planned
+	 */
+	private Memo(QueryGraph graph) {
+		this.graph = graph;
+		this.groups = new HashMap<Long, Group>();
+		this.order = new ArrayList<Group>();
+		this.bound = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Create a new memo, seeded with a group for each relation in the graph.
+	 * The groups are added once the memo is constructed, so that it does not
+	 * hand itself to its groups before it is complete.
+	 * @param graph Query graph being planned
+	 * @return Memo
+	 */
+	public static Memo seeded(QueryGraph graph) {
+		Memo memo = new Memo(graph);
+		for (int i = 0; i < graph.size(); i++) {
+			Group group = memo.getGroup(1L << i);
+			Operator op = graph.getRelation(i);
+			group.offer(op, graph.getCost(op));
+		}
+		return memo;
+	}
+
+	/**
+	 * Return the group for the given set of relations, creating it if
+	 * it does not exist yet
+	 * @param mask Relations covered by the group
+	 * @return Group
+	 */
+	public Group getGroup(long mask) {
+		Group group = this.groups.get(mask);
+		if (group == null) {
+			group = new Group(mask);
+			this.groups.put(mask, group);
+			this.order.add(group);
+		}
+		return group;
+	}
+
+	/**
+	 * Return the group for the given set of relations, or null if there is none
+	 * @param mask Relations covered by the group
+	 * @return Group
+	 */
+	public Group findGroup(long mask) {
+		return this.groups.get(mask);
+	}
+
+	/**
+	 * Return the groups in the order in which they were created
+	 * @return List of groups
+	 */
+	public List<Group> getGroups() {
+		return this.order;
+	}
+
+	/**
+	 * Return the query graph this memo belongs to
+	 * @return Query graph
+	 */
+	public QueryGraph getGraph() {
+		return this.graph;
+	}
+
+	/**
+	 * Return the cost of the cheapest complete plan known so far
+	 * @return Upper bound on the cost of the best plan
+	 */
+	public long getBound() {
+		return this.bound;
+	}
+
+	/**
+	 * Set the cost of the cheapest complete plan known so far, such as
+	 * a plan found by a greedy search
+	 * @param bound Upper bound on the cost of the best plan
+	 */
+	public void setBound(long bound) {
+		this.bound = bound;
+	}
+
+	/**
+	 * Return true if any plan combining the two sub-plans would cost at
+	 * least the bound, so that the combination need not be built
+	 * @param mask Relations covered by the combination
+	 * @param left Left sub-plan
+	 * @param right Right sub-plan
+	 * @return true if the combination can be pruned
+	 */
+	public boolean prunes(long mask, Operator left, Operator right) {
+		long cost = Estimator.sum(left.getCost(), right.getCost());
+		if (cost >= this.bound) {
+			this.graph.getListener().candidatePruned(mask, cost, this.bound);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Offer a plan to the group for the given relations. A plan that costs
+	 * at least the bound is pruned, and a complete plan lowers the bound.
+	 * @param mask Relations covered by the plan
+	 * @param plan Plan to be offered
+	 * @param cost Estimated cost of the plan
+	 * @return true if the plan is the new best plan of its group
+	 */
+	public boolean offer(long mask, Operator plan, long cost) {
+		if (cost >= this.bound) {
+			this.graph.getListener().candidatePruned(mask, cost, this.bound);
+			return false;
+		}
+		if (mask == this.graph.getAllMask()) {
+			this.bound = cost;
+		}
+		return getGroup(mask).offer(plan, cost);
+	}
+
+	/**
+	 * Cost every alternative of a group (and, recursively, of its inputs)
+	 * and return the group's cheapest plan. Each group is costed only once,
+	 * and alternatives that cannot beat the bound are skipped. If the graph
+	 * expires, groups not yet costed are left without a plan.
+	 * @param group Group to be costed
+	 * @return Cheapest plan for the group, or null if every plan was pruned
+	 */
+	public Operator optimise(Group group) {
+		if (group.costed || this.graph.isExpired()) {
+			return group.best;
+		}
+		for (Expression expr : group.expressions) {
+			Operator left = optimise(expr.left);
+			Operator right = optimise(expr.right);
+			if (left == null || right == null || prunes(group.mask, left, right)) {
+				continue;
+			}
+			Operator candidate = this.graph.combine(left, expr.left.mask, right, expr.right.mask);
+			offer(group.mask, candidate, this.graph.getCost(candidate));
+		}
+		group.costed = true;
+		return group.best;
+	}
+
+	/**
+	 * A group of logically equivalent sub-plans over the same relations.
+	 */
+	public static class Group {
+		private long mask;
+		private List<Expression> expressions;
+		private Set<Long> leftMasks;
+		private Operator best;
+		private long cost;
+		private boolean costed;
+
+		private Group(long mask) {
+			this.mask = mask;
+			this.expressions = new ArrayList<Expression>();
+			this.leftMasks = new HashSet<Long>();
+			this.cost = Long.MAX_VALUE;
+			this.costed = Long.bitCount(mask) == 1;
+		}
+
+		/**
+		 * Add the alternative of combining two groups, unless it is already known
+		 * @param left Left input group
+		 * @param right Right input group
+		 * @return true if the alternative was not in the group
+		 */
+		public boolean addExpression(Group left, Group right) {
+			if (!this.leftMasks.add(left.mask)) {
+				return false;
+			}
+			this.expressions.add(new Expression(left, right));
+			return true;
+		}
+
+		/**
+		 * Record a plan for this group, keeping it if it is the cheapest so far
+		 * @param plan Plan over the relations of this group
+		 * @param cost Estimated cost of the plan
+		 * @return true if the plan is the new best plan
+		 */
+		public boolean offer(Operator plan, long cost) {
+			if (this.best == null || cost < this.cost) {
+				this.best = plan;
+				this.cost = cost;
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * @return the relations covered by this group
+		 */
+		public long getMask() {
+			return this.mask;
+		}
+
+		/**
+		 * @return the logical alternatives for this group
+		 */
+		public List<Expression> getExpressions() {
+			return this.expressions;
+		}
+
+		/**
+		 * @return the cheapest plan found for this group, or null if none
+		 */
+		public Operator getBest() {
+			return this.best;
+		}
+
+		/**
+		 * @return the cost of the cheapest plan found for this group
+		 */
+		public long getCost() {
+			return this.cost;
+		}
+	}
+
+	/**
+	 * A logical alternative within a group: the combination of two input groups.
+	 */
+	public static class Expression {
+		private Group left;
+		private Group right;
+		int leftSeen;
+		boolean commuted;
+
+		private Expression(Group left, Group right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		/**
+		 * @return the left input group
+		 */
+		public Group getLeft() {
+			return this.left;
+		}
+
+		/**
+		 * @return the right input group
+		 */
+		public Group getRight() {
+			return this.right;
+		}
+	}
+}
@@ -3,6 +3,10 @@
  */
 package sjdb;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * This class represents a named relation which is fed into a query plan
  * @author nmg
@@ -13,14 +17,108 @@ public class NamedRelation extends Relation {
 	 */
 	private String name;
 	
+	/**
+	 * The index of the named relation in the catalogue, or -1
+	 */
+	private int id;
+	
+	/**
+	 * A sample of the tuples of the named relation, or null
+	 */
+	private volatile Sample sample;
+	
+	/**
+	 * Statistics over several attributes of the named relation
+	 */
+	private volatile List<AttributeGroup> groups = Collections.emptyList();
+	private volatile List<Dependency> dependencies = Collections.emptyList();
+	
 	/**
 	 * Create a new named relation with a given name and tuple count
 	 * @param name The name of the relation
 	 * @param size The tuple count
 	 */
-	public NamedRelation(String name, int size) {
+	public NamedRelation(String name, long size) {
+		this(name, size, -1);
+	}
+	
+	/**
+	 * Create a new named relation with a given name, tuple count and
+	 * catalogue index
+	 * @param name The name of the relation
+	 * @param size The tuple count
+	 * @param id The index of the relation in the catalogue
+	 */
+	NamedRelation(String name, long size, int id) {
 		super(size);
 		this.name = name;
+		this.id = id;
+	}
+	
+	/**
+	 * Return the index of this relation in the catalogue that created it;
+	 * indices are dense, starting from zero.
+	 * @return The index, or -1 if the relation was not created by a catalogue
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Return the sample of the tuples of this relation recorded in the
+	 * catalogue (see Catalogue.setSample()).
+	 * @return The sample, or null if there is none
+	 */
+	public Sample getSample() {
+		return sample;
+	}
+
+	/**
+	 * Set the sample of the tuples of this relation
+	 * @param sample The sample, or null for none
+	 */
+	void setSample(Sample sample) {
+		this.sample = sample;
+	}
+
+	/**
+	 * Return the groups of attributes of this relation whose joint value
+	 * counts are known (see Catalogue.createGroup()).
+	 * @return The groups, which must not be modified
+	 */
+	public List<AttributeGroup> getGroups() {
+		return groups;
+	}
+
+	/**
+	 * Return the functional dependencies known between the attributes of
+	 * this relation (see Catalogue.createDependency()).
+	 * @return The dependencies, which must not be modified
+	 */
+	public List<Dependency> getDependencies() {
+		return dependencies;
+	}
+
+	/**
+	 * Add a group of attributes; the list is copied, so that readers of
+	 * the old list are unaffected
+	 * @param group
+	 */
+	void addGroup(AttributeGroup group) {
+		List<AttributeGroup> groups = new ArrayList<AttributeGroup>(this.groups);
+		groups.add(group);
+		this.groups = Collections.unmodifiableList(groups);
+	}
+
+	/**
+	 * Add a functional dependency; the list is copied, so that readers of
+	 * the old list are unaffected
+	 * @param dependency
+	 */
+	void addDependency(Dependency dependency) {
+		List<Dependency> dependencies = new ArrayList<Dependency>(this.dependencies);
+		dependencies.add(dependency);
+		this.dependencies = Collections.unmodifiableList(dependencies);
 	}
 
 	/* (non-Javadoc)
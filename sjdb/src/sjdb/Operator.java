@@ -23,6 +23,16 @@ public abstract class Operator {
 	 * The relation produced by this operator as output.
 	 */
 	protected Relation output;
+	/**
+	 * The estimated cost of the plan rooted at this operator, or -1 if
+	 * the plan has not been costed yet.
+	 */
+	protected long cost = -1;
+	/**
+	 * The estimator that estimated the cost and output of this operator,
+	 * or null if the plan has not been costed yet.
+	 */
+	protected Estimator estimator;
 	
 	public Operator() {
 		this.inputs = new ArrayList<Operator>();
@@ -63,6 +73,42 @@ public abstract class Operator {
 		this.output = reln;
 	}
 	
+	/**
+	 * Return the estimated cost of the plan rooted at this operator.
+	 * @return Cost, or -1 if the plan has not been costed
+	 */
+	public long getCost() {
+		return this.cost;
+	}
+	
+	/**
+	 * Return the estimator that estimated the cost of the plan rooted at
+	 * this operator.
+	 * @return Estimator, or null if the plan has not been costed
+	 */
+	public Estimator getEstimator() {
+		return this.estimator;
+	}
+	
+	/**
+	 * Set the estimated cost of the plan rooted at this operator, as
+	 * estimated by no particular estimator.
+	 * @param cost Estimated cost
+	 */
+	public void setCost(long cost) {
+		setCost(cost, null);
+	}
+	
+	/**
+	 * Set the estimated cost of the plan rooted at this operator.
+	 * @param cost Estimated cost
+	 * @param estimator Estimator that estimated it
+	 */
+	public void setCost(long cost, Estimator estimator) {
+		this.cost = cost;
+		this.estimator = estimator;
+	}
+	
 	/**
 	 * Accept a visitor to this operator.
 	 * @param visitor Visitor to be accepted
@@ -4,48 +4,205 @@
 package sjdb;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 
 /**
  * This Optimiser class represents an Optimiser for planning
  * 
+ * An Optimiser may be shared by many threads, which may optimise queries
+ * at the same time without locking: each call collects the scans and
+ * predicates of its query afresh, the estimator holds no state (beyond
+ * the thread-safe caches of the samples it reads), and the enumerators
+ * keep their search state in objects local to each search.
+ * A plan is changed only by the thread that builds it, so the plan given
+ * to optimise is left as it is.
+ * 
+ * Sets of attributes are held as bitsets over the attribute indices
+ * assigned by the Catalogue (see Attribute.getId()).
+ * 
  * @author Junming Zhang
  *
  */
-public class Optimiser implements PlanVisitor {
+public class Optimiser {
 	
-	private static Estimator EST = new Estimator(); // Apply Estimator
+	/** Name of the phase that pushes selects and projects down to the scans */
+	public static final String PUSH_DOWN = "push-down";
+	/** Name of the phase that searches for the cheapest join order */
+	public static final String JOIN_ORDER = "join order";
+
+	private static final Estimator EST = new Estimator(); // Apply Estimator; holds no state, so it is shared
+	private volatile Estimator estimator = EST; // estimates the cost of candidate plans
+	private volatile PlanEnumerator enumerator = new AdaptiveEnumerator(); // join order search strategy
+	private volatile boolean leftDeep = false; // restrict the search to left-deep plans
+	private volatile PlanCache cache; // plans of previously optimised queries, if any
+	private volatile OptimiserListener listener = OptimiserListener.NONE; // told about the progress of each search
 
 	public Optimiser(Catalogue cat) {
 	}
 
-	private Set<Attribute> allAttributes = new HashSet<>();
-	private Set<Predicate> allPredicates = new HashSet<>();
-	private Set<Scan> allScans = new HashSet<Scan>();
-	
-	public void visit(Scan op) { allScans.add(new Scan((NamedRelation)op.getRelation())); }
-	public void visit(Project op) { allAttributes.addAll(op.getAttributes()); }
-	public void visit(Product op) {}
-	public void visit(Join op) {}
-	public void visit(Select op) {
-		allPredicates.add(op.getPredicate());
-		allAttributes.add(op.getPredicate().getLeftAttribute());
-		if(!op.getPredicate().equalsValue()) allAttributes.add(op.getPredicate().getRightAttribute());
+	/**
+	 * Set the strategy used to search for the cheapest join order
+	 */
+	public void setEnumerator(PlanEnumerator enumerator) {
+		this.enumerator = enumerator;
+	}
+
+	/**
+	 * Set the estimator used to cost candidate plans (by default, one that
+	 * uses only the statistics of the attributes; see Estimator(boolean) for
+	 * one that also uses the samples recorded in the catalogue)
+	 */
+	public void setEstimator(Estimator estimator) {
+		this.estimator = estimator;
+	}
+
+	/**
+	 * Restrict the search to left-deep plans, or allow bushy plans (the default)
+	 */
+	public void setLeftDeep(boolean leftDeep) {
+		this.leftDeep = leftDeep;
+	}
+
+	/**
+	 * Look up queries in the given plan cache before searching for a plan,
+	 * and cache the plans of queries whose search finished (null disables
+	 * caching, the default)
+	 */
+	public void setPlanCache(PlanCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Set the listener told about the progress of every optimisation that
+	 * is not given a listener of its own (OptimiserListener.NONE, the
+	 * default, ignores every event)
+	 */
+	public void setListener(OptimiserListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * The scans, predicates and attributes of the query being optimised;
+	 * a new one is made for each call to optimise
+	 */
+	private static class Query implements PlanVisitor {
+		private BitSet allAttributes = new BitSet();
+		private Set<Predicate> allPredicates = new LinkedHashSet<>();
+		private Set<Scan> allScans = new LinkedHashSet<Scan>();
+		private Map<Attribute, Attribute> scanned; // attributes of the scanned relations by name, built when first needed
+		
+		public void visit(Scan op) { allScans.add(new Scan((NamedRelation)op.getRelation())); }
+		public void visit(Project op) { for (Attribute attr : op.getAttributes()) set(allAttributes, resolve(attr)); }
+		public void visit(Product op) {}
+		public void visit(Join op) {}
+		public void visit(Select op) {
+			// scans are visited first, so the attributes of the predicate can be resolved
+			Predicate pred = op.getPredicate().replaceAttributes(this::resolve);
+			allPredicates.add(pred);
+			for (Attribute attr : pred.getAttributes()) set(allAttributes, attr);
+		}
+		
+		/**
+		 * Return the attribute of a scanned relation with the same name as an
+		 * attribute that was created by name only, and so has no index
+		 */
+		private Attribute resolve(Attribute attr) {
+			if (attr.getId() >= 0) return attr;
+			if (scanned == null) {
+				scanned = new HashMap<>();
+				for (Scan scan : allScans) {
+					for (Attribute scannedAttr : scan.getRelation().getAttributes()) scanned.put(scannedAttr, scannedAttr);
+				}
+			}
+			Attribute found = scanned.get(attr);
+			return found != null ? found : attr;
+		}
+	}
+
+	/**
+	 * Add an attribute to a set of attribute indices, if it has an index
+	 */
+	private static void set(BitSet attrs, Attribute attr) {
+		if (attr.getId() >= 0) attrs.set(attr.getId());
+	}
+
+	/**
+	 * Return true if an attribute is in a set of attribute indices
+	 */
+	private static boolean has(BitSet attrs, Attribute attr) {
+		return attr.getId() >= 0 && attrs.get(attr.getId());
 	}
 
 	public Operator optimise(Operator plan) {
-		plan.accept(this);
+		return optimise(plan, false, 0, this.listener).getPlan();
+	}
+
+	/**
+	 * Optimise a plan within a time budget. When the budget runs out (or the
+	 * calling thread is interrupted) the join order search stops, and the
+	 * cheapest complete plan found so far is returned.
+	 * @param plan Canonical plan to be optimised
+	 * @param budget Time allowed for the search
+	 * @param unit Unit of the budget
+	 * @return Cheapest plan found, and whether the search finished
+	 */
+	public OptimiserResult optimise(Operator plan, long budget, TimeUnit unit) {
+		return optimise(plan, budget, unit, this.listener);
+	}
+
+	/**
+	 * Optimise a plan within a time budget, telling the given listener
+	 * about the progress of the search.
+	 * @param plan Canonical plan to be optimised
+	 * @param budget Time allowed for the search
+	 * @param unit Unit of the budget
+	 * @param listener Listener for this optimisation only
+	 * @return Cheapest plan found, and whether the search finished
+	 */
+	public OptimiserResult optimise(Operator plan, long budget, TimeUnit unit, OptimiserListener listener) {
+		if (budget < 0) {
+			throw new IllegalArgumentException("Negative time budget: " + budget);
+		}
+		return optimise(plan, true, System.nanoTime() + unit.toNanos(budget), listener);
+	}
+
+	private OptimiserResult optimise(Operator plan, boolean bounded, long deadline, OptimiserListener listener) {
+		// read the settings once, in case another thread changes them
+		PlanEnumerator enumerator = this.enumerator;
+		boolean leftDeep = this.leftDeep;
+		PlanCache cache = this.cache;
+		Estimator estimator = this.estimator;
+
+		PlanCache.Key key = null;
+		if (cache != null) {
+			key = cache.key(plan, estimator);
+			OptimiserResult cached = cache.get(key);
+			if (cached != null) return cached;
+		}
+
+		listener.phaseStarted(PUSH_DOWN);
+		Query query = new Query();
+		plan.accept(query);
 		// in the canonical plan, the selects and projects will be push down
 		List<Operator> operation_blocked;
-		operation_blocked = ObtainBlockedOptForScans(allScans, allAttributes, allPredicates, plan); // Obtain blocked operator in each scan
+		operation_blocked = ObtainBlockedOptForScans(query, plan, estimator); // Obtain blocked operator in each scan
+		listener.phaseEnded(PUSH_DOWN);
+
+		listener.phaseStarted(JOIN_ORDER);
+		OptimiserResult Plan_optimised;
+		Plan_optimised = findCheapsetPlan(query, operation_blocked, plan, estimator, enumerator, leftDeep, listener, bounded, deadline); // Find the cheapest plan and calculate the cheapset cost
+		listener.phaseEnded(JOIN_ORDER);
 
-		Operator Plan_optimised;
-		Plan_optimised = findCheapsetPlan(allPredicates, operation_blocked, plan); // Find the cheapest plan and calculate the cheapset cost
+		// a plan cut short by the budget may be beaten next time
+		if (cache != null && Plan_optimised.isComplete()) cache.put(key, Plan_optimised);
 		
 		return Plan_optimised;
 	}
@@ -53,53 +210,37 @@ public class Optimiser implements PlanVisitor {
 	/**
 	 * Find the cheapest plan and calculate the cheapset cost
 	 */
-	private static Operator findCheapsetPlan(Set<Predicate> oriPre, List<Operator> op1, Operator root){
+	private static OptimiserResult findCheapsetPlan(Query query, List<Operator> op1, Operator root, Estimator estimator, PlanEnumerator enumerator, boolean leftDeep, OptimiserListener listener, boolean bounded, long deadline){
 		
-		List newlist;
 		List<Predicate> pre1;
-		newlist = new ArrayList<>();
-		pre1 = newlist;
-		pre1.addAll(oriPre);
+		pre1 = new ArrayList<>(query.allPredicates);
 		
-		// predicate sorted
-		List<List<Predicate>> sortedPre;
-		sortedPre = ProducePer(pre1); //Produce permutated list of possible predicates
+		// attributes required by the root of the plan
+		BitSet projected;
+		projected = ObtainReqAtt(query, new ArrayList<Predicate>(), root);
 		
-		// calculate cheapest cost
+		// search the join orders of the blocked operators
+		QueryGraph graph;
+		graph = new QueryGraph(op1, pre1, projected, estimator);
+		graph.setLeftDeep(leftDeep);
+		graph.setListener(listener);
+		if (bounded) graph.setDeadline(deadline);
 		Operator Plan_cheapset;
-		int Cost_cheapset;
-		Plan_cheapset = null; // initialization
-		Cost_cheapset = Integer.MAX_VALUE;
-		
-		// in each permutation
-		for (List<Predicate> loop : sortedPre) {
-			
-			// set operator
-			List<Operator> op2;
-			List newlist1;
-			newlist1 = new ArrayList<>();
-			op2 = newlist1;
-			op2.addAll(op1);
-			
-			// produce the tree
-			Operator Plan1;
-			Plan1 = OperatorControl(op2, loop, root); //Find the only one or pair of left operator 
-			int temp;
-			temp = EST.getCost(Plan1);
-			System.out.println("Found plan with cost: " + temp);///////////////debug
-			
-			// create the cheapset plan
-			Plan_cheapset = (temp < Cost_cheapset) ? Plan1 : Plan_cheapset;
-			Cost_cheapset = (temp < Cost_cheapset) ? temp : Cost_cheapset;
-		}
+		Plan_cheapset = enumerator.enumerate(graph);
+		boolean complete = !graph.isExpired(); // before costing, which may take the search past the deadline
+		long cost = estimator.getCost(Plan_cheapset);
+		graph.complete(Plan_cheapset, cost); // single relations are never combined
 		
-		return Plan_cheapset;
+		return new OptimiserResult(Plan_cheapset, cost, complete);
 	}
 	
 	/**
 	 * Obtain blocked operator in each scan
 	 */
-	private static List<Operator> ObtainBlockedOptForScans(Set<Scan> scans, Set<Attribute> attrs, Set<Predicate> predicates, Operator root) {
+	private static List<Operator> ObtainBlockedOptForScans(Query query, Operator root, Estimator estimator) {
+		
+		Set<Scan> scans = query.allScans;
+		Set<Predicate> predicates = query.allPredicates;
 		
 		// the blocked operators in all scans
 		List<Operator> BlockedOperator;
@@ -109,15 +250,14 @@ public class Optimiser implements PlanVisitor {
 		
 		for (Scan loop: scans){
 			Operator processedSelect;
-			processedSelect = RemoveRedundantSelect(loop, predicates);
+			processedSelect = RemoveRedundantSelect(loop, predicates, estimator);
 			List<Predicate> ele1; 
 			List newlist1;
 			newlist1 = new ArrayList<>(scans.size());
 			ele1 = newlist1;
 			ele1.addAll(predicates);
-			ObtainReqAtt(ele1, root);
             // (Choose and project requied attributes) + (Obtain reqired attributes from the predicate and opreator)S
-			BlockedOperator.add(ProjectReqAtt(processedSelect, ObtainReqAtt(ele1, root)));
+			BlockedOperator.add(ProjectReqAtt(processedSelect, ObtainReqAtt(query, ele1, root), estimator));
 		}
 		return BlockedOperator;
 	}
@@ -125,17 +265,17 @@ public class Optimiser implements PlanVisitor {
 	/**
 	 * Remove redundant select operator
 	 */
-	private static Operator RemoveRedundantSelect(Operator op, Set<Predicate> preds){
+	private static Operator RemoveRedundantSelect(Operator op, Set<Predicate> preds, Estimator estimator){
 		
 		// The result
 		Operator result;
 		result = op;
 
 		// attributes here contains unremoved attributes
-		List<Attribute> usedAttrs;
+		BitSet usedAttrs = new BitSet();
 		Relation result_out;
 		result_out = result.getOutput();
-		usedAttrs = result_out.getAttributes();
+		for (Attribute attr : result_out.getAttributes()) set(usedAttrs, attr);
 			
 		// loop to find applicable in the operator of the list
 		Iterator<Predicate> loop = preds.iterator();
@@ -144,23 +284,20 @@ public class Optimiser implements PlanVisitor {
 			Predicate Pre1; // current predict
 			Pre1 = loop.next();
 			
-			// set output if the operator is unset
-			if(result.getOutput() == null) {
-				result.accept(EST);
-			}
+			// set output if the operator is unset, or was estimated by another estimator
+			estimator.getCost(result);
 			
-			// attr = val and contains left relation of output
-			if ((Pre1.equalsValue() && usedAttrs.contains(Pre1.getLeftAttribute()))) {
+			// every attribute of the predicate (attr = val, attr = attr, a range or a disjunction) is in the output
+			boolean applicable = true;
+			for (Attribute attr : Pre1.getAttributes()) {
+				applicable &= has(usedAttrs, attr);
+			}
+			if (applicable) {
 				// add select operator in output
 				result = new Select(result, Pre1);
 				// remove used predict
 				loop.remove();
 			}
-			// attr != val and contains relation of output
-			if ((!Pre1.equalsValue()) && (usedAttrs.contains(Pre1.getLeftAttribute()) && usedAttrs.contains(Pre1.getRightAttribute()))) {
-				result = new Select(result, Pre1);
-				loop.remove();
-			}
 		}
 		return result;
 	}
@@ -168,239 +305,54 @@ public class Optimiser implements PlanVisitor {
 	/**
 	 * Choose and project requied attributes
 	 */
-	private static Operator ProjectReqAtt(Operator op, Set<Attribute> attrs){
+	private static Operator ProjectReqAtt(Operator op, BitSet attrs, Estimator estimator){
 
 		// fill up output
-		if(op.getOutput() == null) op.accept(EST);
+		estimator.getCost(op);
 		
-		// choose attributes to project
-		List newlist;
-		newlist = new ArrayList<>(attrs);
+		// choose attributes to project, in the order of the output
 		List<Attribute> ToProjectatt;
-		ToProjectatt = newlist;
-		// Retains only the elements in this list that are contained in the specified collection
-		List op1;
-		op1 = op.getOutput().getAttributes();
-		ToProjectatt.retainAll(op1); 
+		ToProjectatt = new ArrayList<>();
+		for (Attribute attr : op.getOutput().getAttributes()) {
+			if (has(attrs, attr)) ToProjectatt.add(attr);
+		}
 		
 		// return required attributes
 		if (ToProjectatt.size() > 0) {
 			Operator op1_1 = new Project(op, ToProjectatt);
-			op1_1.accept(EST);
+			estimator.getCost(op1_1);
 			return op1_1;
 		} else {
 			return op;
 		}
 	}
-	/**
-	 * Find the only one or pair of left operator
-	 * 
-	 * no operator in predicate then go product
-	 * one operator in predicate then go select
-	 * two operatots in predicate then go join
-	 * using project for unrequried attribute
-	 */
-	private static Operator OperatorControl(List<Operator> op1, List<Predicate> pre1, Operator root){
-		
-		Operator out1;
-		out1 = null;
-		int con1;
-		con1 = 1;
-		if (op1.size() == con1){
-			out1 = op1.get(0); //first element
-			if (out1.getOutput() == null){
-				out1.accept(EST);//fix emputy
-			} 
-			return out1;
-		}
-		
-		// find joins or selects
-		Iterator<Predicate> loop = pre1.iterator();
-		while(loop.hasNext()){
-			
-			Predicate Pre2;//current predicate
-			Pre2 = loop.next();
-
-			Operator zuo;
-			Operator you;
-			zuo = takeOptFormAtt(op1, Pre2.getLeftAttribute());// The potential Operator in left attributes
-			you = takeOptFormAtt(op1, Pre2.getRightAttribute());// The potential Operator in right attributes
-			
-			// Create select when only 1 operator in predicate
-			if((zuo == null && you != null)){
-				out1 = new Select(zuo != null? zuo : you, Pre2);
-				loop.remove();
-			} 
-			if (zuo != null && you == null){
-				out1 = new Select(zuo != null? zuo : you, Pre2);
-				loop.remove();
-			}
-			
-			// create join when both opreator in predicate
-			if(zuo != null && you != null){
-				out1 = new Join(zuo, you, Pre2);
-				loop.remove();
-			}
-			
-			// sort the output relation
-			if (out1.getOutput() == null){
-				out1.accept(EST);
-			} 
-			
-			// obtain reqired atrrbuties
-			Set reqiredAtt;
-			reqiredAtt = ObtainReqAtt(pre1, root);
-			Set<Attribute> ReqAtt;
-			ReqAtt = reqiredAtt;
-			
-			// project output when not all attributes are requried
-			List avaAtt;
-			avaAtt = out1.getOutput().getAttributes();
-			List<Attribute> Att_avalibe; // available attributes
-			Att_avalibe = avaAtt;
-			
-			// when there are no att can left out
-			if (ReqAtt.size() == Att_avalibe.size() && Att_avalibe.containsAll(ReqAtt)){
-				op1.add(out1);
-			}
-			else{
-				// keep the attribute
-				List<Attribute> remainAtt;
-				remainAtt = Att_avalibe.stream().filter(attr -> ReqAtt.contains(attr)).collect(Collectors.toList());
-				int check1;
-				check1 = 0;
-				if (remainAtt.size() == check1) {
-					op1.add(out1); 
-				} else {
-					Project temp;
-					Project temp1;
-					temp = new Project(out1, remainAtt);
-					temp1 = temp;
-					temp1.accept(EST); 
-					op1.add(temp1);
-				}
-			}
-		}
-		
-		// if no predicate left, change operators to products
-		while(op1.size() > 1) {
-			// first and second elements
-			Operator f1;
-			Operator f2;
-			Operator product;
-			f1 = op1.get(0);
-			f2 = op1.get(1);
-			product = new Product(f1, f2);
-			product.accept(EST);
-			
-			// remove the first two and add the new one
-			// adding new elements to replace f1,f2
-			op1.remove(f1);
-			op1.remove(f2);
-			op1.add(product);
-		}
-
-		out1 = op1.get(0); // obtain the left one
-		return out1;
-	}
-	
-	/**
-	 * judge and take if operators contain attribute in relation
-	 */
-	private static Operator takeOptFormAtt(List<Operator> listOpt, Attribute attr){
-	
-		Iterator<Operator> loop = listOpt.iterator();
-		while(loop.hasNext()){
-			
-			Operator op1; //current opreator
-			op1 = loop.next();
-
-			// return when there are relation contained in the operator
-			Boolean check;
-			check = op1.getOutput().getAttributes().contains(attr);
-			if (check){
-				loop.remove();
-				return op1;
-			}
-		}
-		return null;
-	}
-	
 	/**
 	 * Obtain reqired attributes from the predicate and opreator
 	 */
-	private static Set<Attribute> ObtainReqAtt(List<Predicate> predicates, Operator root){
+	private static BitSet ObtainReqAtt(Query query, List<Predicate> predicates, Operator root){
 		
 		// required set of attributes
-		Set hashset;
-		hashset = new HashSet<>();
-		Set<Attribute> att_required = hashset;
+		BitSet att_required = new BitSet();
 		
 		Iterator<Predicate> loop = predicates.iterator();
 		while(loop.hasNext()){
 			
 			// adding attributes to the predicate
 			Predicate Pre2; // current predicate
-			Attribute lef;
-			Attribute rig;
 
 			Pre2 = loop.next();
-			lef = Pre2.getLeftAttribute();
-			rig = Pre2.getRightAttribute();
-			
-			att_required.add(lef);
-			if (rig != null) {
-				att_required.add(rig);
+			for (Attribute attr : Pre2.getAttributes()) {
+				set(att_required, attr);
 			}
 		}
 		
 		// add attribute when root is project
 		if (root instanceof Project) {
-			att_required.addAll(((Project) root).getAttributes());
+			for (Attribute attr : ((Project) root).getAttributes()) {
+				set(att_required, query.resolve(attr));
+			}
 		}
 		
 		return att_required;
 	}
-	
-	/**
-	 * Produce permutated list of possible predicates
-	 */
-	private static List<List<Predicate>> ProducePer(List<Predicate> attrs) {
-		
-		// 1 element condition
-		if (attrs.size() == 0) { 
-			List newlist;
-			newlist = new ArrayList<List<Predicate>>();
-			List<List<Predicate>> output1;
-			output1 = newlist;
-			List newlist1;
-			newlist1 = new ArrayList<List<Predicate>>();
-		    output1.add(newlist1);
-		    return output1;
-		}
-		
-		// multiple elements condition, the first element will be removed
-		Predicate pre1;
-		pre1 = attrs.remove(0); // remove first element
-		List<List<Predicate>> val1; // processed value
-		List newlist2;
-		newlist2 = new ArrayList<List<Predicate>>();
-		val1 = newlist2;
-
-		// recursion
-		List<List<Predicate>> temp1; // permutations
-		temp1 = ProducePer(attrs);
-		
-
-		for (List<Predicate> smalletemp1 : temp1) {
-		    for (int temp2=0; temp2 <= smalletemp1.size(); temp2++) {
-				List smalllist;
-		        smalllist = new ArrayList<Predicate>(smalletemp1);
-		    	List<Predicate> temp = smalllist;
-		    	temp.add(temp2, pre1);
-		    	val1.add(temp);
-		    }
-		}	
-		return val1;
-	}
 }
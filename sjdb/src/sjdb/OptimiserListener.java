@@ -0,0 +1,57 @@
+package sjdb;
+
+/**
+ * This is an interface for classes that follow the progress of the
+ * Optimiser, such as tracing or statistics collection. Every method does
+ * nothing by default, and NONE (which overrides none of them) is used when
+ * no listener is given, so an unused listener costs next to nothing.
+ *
+ * Sets of relations are given as bitmasks over the relation indices of
+ * the QueryGraph being planned. A listener used with an enumerator that
+ * plans on several threads (such as a parallel DPEnumerator) may be
+ * called from all of them at once.
+ */
+public interface OptimiserListener {
+
+	/**
+	 * A listener that ignores every event.
+	 */
+	public static final OptimiserListener NONE = new OptimiserListener() {};
+
+	/**
+	 * Called when the Optimiser starts a phase of its work.
+	 * @param phase Name of the phase
+	 */
+	public default void phaseStarted(String phase) {}
+
+	/**
+	 * Called when the Optimiser ends a phase of its work.
+	 * @param phase Name of the phase
+	 */
+	public default void phaseEnded(String phase) {}
+
+	/**
+	 * Called when a candidate plan has been built and costed.
+	 * @param relations Relations covered by the plan
+	 * @param plan Candidate plan
+	 * @param cost Estimated cost of the plan
+	 */
+	public default void candidateCosted(long relations, Operator plan, long cost) {}
+
+	/**
+	 * Called when a candidate plan is abandoned because it cannot beat
+	 * the cheapest complete plan known, either before it is built (when
+	 * the costs of its inputs already reach the bound) or after it is costed.
+	 * @param relations Relations covered by the candidate
+	 * @param cost Cost of the candidate, or a lower bound on it
+	 * @param bound Cost of the cheapest complete plan known
+	 */
+	public default void candidatePruned(long relations, long cost, long bound) {}
+
+	/**
+	 * Called when a complete plan cheaper than any seen before is found.
+	 * @param plan Complete plan
+	 * @param cost Estimated cost of the plan
+	 */
+	public default void bestImproved(Operator plan, long cost) {}
+}
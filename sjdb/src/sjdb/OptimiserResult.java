@@ -0,0 +1,46 @@
+package sjdb;
+
+/**
+ * This class describes the outcome of a time-budgeted optimisation: the
+ * cheapest complete plan found, its estimated cost, and whether the join
+ * order search finished before its budget ran out.
+ */
+public class OptimiserResult {
+	private Operator plan;
+	private long cost;
+	private boolean complete;
+
+	/**
+	 * Create a new result.
+	 * @param plan Cheapest plan found
+	 * @param cost Estimated cost of the plan
+	 * @param complete true if the search finished within its budget
+	 */
+	public OptimiserResult(Operator plan, long cost, boolean complete) {
+		this.plan = plan;
+		this.cost = cost;
+		this.complete = complete;
+	}
+
+	/**
+	 * @return the cheapest plan found
+	 */
+	public Operator getPlan() {
+		return this.plan;
+	}
+
+	/**
+	 * @return the estimated cost of the plan
+	 */
+	public long getCost() {
+		return this.cost;
+	}
+
+	/**
+	 * @return true if the search finished, false if it was cut short and
+	 * a cheaper plan may exist
+	 */
+	public boolean isComplete() {
+		return this.complete;
+	}
+}
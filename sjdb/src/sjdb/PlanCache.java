@@ -0,0 +1,411 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class implements a bounded cache of optimised plans, which the
+ * Optimiser consults before searching for a join order.
+ *
+ * Plans are keyed by a fingerprint of the canonical query: the scanned
+ * relations and the predicates, each in a canonical order, and the
+ * projected attributes. These are all the Optimiser uses, so queries with
+ * the same fingerprint get the same plan however their FROM and WHERE
+ * clauses were written. The projection keeps its order, since it fixes
+ * the order of the output columns.
+ *
+ * The literals of attr=value predicates are not part of the fingerprint;
+ * each is a parameter slot (the literals of other predicates, such as
+ * ranges, are). The literal in each slot is also placed in a
+ * selectivity bucket (powers of four of its estimated selectivity), and a
+ * small number of plans is kept per fingerprint, one per combination of
+ * buckets. A plan cached for other literals in the same buckets is re-bound
+ * to the new literals rather than planned again. Under the uniform
+ * assumption every literal has the same selectivity, so a single plan
+ * serves every literal; for attributes with a Synopsis, common and rare
+ * values fall in different buckets and get plans of their own.
+ *
+ * Each entry records the catalogue version of every relation it scans, and
+ * is dropped when any of them has changed. When the cache is full, the
+ * least recently used entry is evicted. Cached plans are handed to every
+ * caller that asks for them, so they must be treated as read-only.
+ *
+ * Each entry also records the estimator its plans were costed with. A plan
+ * is only handed to a caller whose estimator estimates alike, and re-bound
+ * plans are costed with the caller's estimator.
+ */
+public class PlanCache {
+	private static final double BUCKET_RATIO = 4.0;
+
+	private static final Estimator FORMULA = new Estimator();
+
+	private Catalogue catalogue;
+	private int capacity;
+	private int variants;
+	private LinkedHashMap<String, Entry> entries;
+	private long hits;
+	private long rebinds;
+	private long misses;
+	private long evictions;
+	private long invalidations;
+
+	/**
+	 * Create a new cache that keeps up to four plans per query.
+	 * @param catalogue Catalogue holding the statistics the plans depend on
+	 * @param capacity Maximum number of queries held
+	 */
+	public PlanCache(Catalogue catalogue, int capacity) {
+		this(catalogue, capacity, 4);
+	}
+
+	/**
+	 * Create a new cache.
+	 * @param catalogue Catalogue holding the statistics the plans depend on
+	 * @param capacity Maximum number of queries held
+	 * @param variants Maximum number of plans held per query, one per
+	 * combination of selectivity buckets
+	 */
+	public PlanCache(Catalogue catalogue, int capacity, int variants) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+		}
+		if (variants < 1) {
+			throw new IllegalArgumentException("Variants must be at least 1: " + variants);
+		}
+		this.catalogue = catalogue;
+		this.capacity = capacity;
+		this.variants = variants;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	}
+
+	/**
+	 * Compute the cache key for a canonical query planned with the formula
+	 * estimator, recording the current versions of the relations it scans
+	 * @param query Canonical query plan
+	 * @return Cache key
+	 */
+	public Key key(Operator query) {
+		return key(query, FORMULA);
+	}
+
+	/**
+	 * Compute the cache key for a canonical query, recording the current
+	 * versions of the relations it scans
+	 * @param query Canonical query plan
+	 * @param estimator Estimator the query is planned with
+	 * @return Cache key
+	 */
+	public Key key(Operator query, Estimator estimator) {
+		Fingerprint print = new Fingerprint();
+		query.accept(print);
+		return new Key(print.toString(), print.relations, print.slots, estimator);
+	}
+
+	/**
+	 * Return the cached result for a key, or null if there is none or the
+	 * statistics it was planned with have changed or it was planned with an
+	 * estimator that estimates differently. A plan cached for other
+	 * literals is returned re-bound to the literals of the key, and costed
+	 * with the estimator of the key.
+	 * @param key Cache key
+	 * @return Cached result
+	 */
+	public OptimiserResult get(Key key) {
+		Variant variant;
+		synchronized (this) {
+			Entry entry = this.entries.get(key.fingerprint);
+			if (entry != null && !entry.key.isCurrent()) {
+				this.entries.remove(key.fingerprint);
+				this.invalidations++;
+				entry = null;
+			}
+			variant = entry == null || !entry.key.estimator.estimatesAlike(key.estimator) ? null : entry.variants.get(key.buckets);
+			if (variant != null && variant.values.equals(key.values)) {
+				this.hits++;
+				return variant.result;
+			}
+		}
+
+		// re-bind outside the lock; the cached plan itself is not changed
+		Operator plan = variant == null ? null : rebind(variant, key);
+		synchronized (this) {
+			if (plan == null) {
+				this.misses++;
+				return null;
+			}
+			this.hits++;
+			this.rebinds++;
+		}
+		return new OptimiserResult(plan, key.estimator.getCost(plan), true);
+	}
+
+	/**
+	 * Add a result to the cache, evicting the least recently used entry
+	 * if the cache is full
+	 * @param key Cache key, computed before the query was planned
+	 * @param result Result of planning the query
+	 */
+	public synchronized void put(Key key, OptimiserResult result) {
+		Entry entry = this.entries.get(key.fingerprint);
+		if (entry == null || !Arrays.equals(entry.key.versions, key.versions)
+				|| !entry.key.estimator.estimatesAlike(key.estimator)) {
+			entry = new Entry(key);
+			this.entries.put(key.fingerprint, entry);
+		}
+		entry.variants.put(key.buckets, new Variant(key.values, result));
+		Iterator<Variant> vars = entry.variants.values().iterator();
+		while (entry.variants.size() > this.variants) {
+			vars.next();
+			vars.remove();
+			this.evictions++;
+		}
+
+		Iterator<Entry> iter = this.entries.values().iterator();
+		while (this.entries.size() > this.capacity) {
+			this.evictions += iter.next().variants.size();
+			iter.remove();
+		}
+	}
+
+	/**
+	 * Remove every entry from the cache
+	 */
+	public synchronized void clear() {
+		this.entries.clear();
+	}
+
+	/**
+	 * @return the number of queries held
+	 */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * @return the number of lookups that found a plan
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * @return the number of lookups that found a plan for other literals,
+	 * and re-bound it
+	 */
+	public synchronized long getRebinds() {
+		return this.rebinds;
+	}
+
+	/**
+	 * @return the number of lookups that found no plan
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	/**
+	 * @return the number of plans evicted to make room for others
+	 */
+	public synchronized long getEvictions() {
+		return this.evictions;
+	}
+
+	/**
+	 * @return the number of queries dropped because their statistics changed
+	 */
+	public synchronized long getInvalidations() {
+		return this.invalidations;
+	}
+
+	/**
+	 * Copy a cached plan, replacing the literals it was planned with by the
+	 * literals of the key. Return null if the literals cannot be matched up,
+	 * which happens if two slots on one attribute had the same literal in
+	 * the cached query but not in the new one.
+	 */
+	private static Operator rebind(Variant variant, Key key) {
+		Map<String, String> values = new HashMap<String, String>();
+		for (int i = 0; i < key.attributes.length; i++) {
+			String old = key.attributes[i] + "=\"" + variant.values.get(i) + "\"";
+			String value = values.put(old, key.values.get(i));
+			if (value != null && !value.equals(key.values.get(i))) {
+				return null;
+			}
+		}
+		return rebind(variant.result.getPlan(), values);
+	}
+
+	/**
+	 * Copy the operators of a plan above the selects whose literals change,
+	 * sharing every sub-plan that does not change
+	 */
+	private static Operator rebind(Operator op, Map<String, String> values) {
+		if (op instanceof Scan) {
+			return op;
+		} else if (op instanceof Select) {
+			Select select = (Select) op;
+			Operator input = rebind(select.getInput(), values);
+			Predicate pred = select.getPredicate();
+			if (pred.equalsValue() && values.containsKey(pred.toString())) {
+				pred = new Predicate(pred.getLeftAttribute(), values.get(pred.toString()));
+			} else if (input == select.getInput()) {
+				return op;
+			}
+			return new Select(input, pred);
+		} else if (op instanceof Project) {
+			Project project = (Project) op;
+			Operator input = rebind(project.getInput(), values);
+			return input == project.getInput() ? op : new Project(input, project.getAttributes());
+		} else {
+			BinaryOperator binary = (BinaryOperator) op;
+			Operator left = rebind(binary.getLeft(), values);
+			Operator right = rebind(binary.getRight(), values);
+			if (left == binary.getLeft() && right == binary.getRight()) {
+				return op;
+			}
+			return op instanceof Join ? new Join(left, right, ((Join) op).getPredicate()) : new Product(left, right);
+		}
+	}
+
+	/**
+	 * The key for a cached plan: the fingerprint of the query, its literals
+	 * and their selectivity buckets, the versions of the relations it
+	 * scans when the key was computed, and the estimator it is planned with.
+	 */
+	public class Key {
+		private String fingerprint;
+		private String[] relations;
+		private long[] versions;
+		private String[] attributes;
+		private List<String> values;
+		private String buckets;
+		private Estimator estimator;
+
+		private Key(String fingerprint, List<String> relations, List<String[]> slots, Estimator estimator) {
+			this.fingerprint = fingerprint;
+			this.estimator = estimator;
+			this.relations = relations.toArray(new String[relations.size()]);
+			this.versions = new long[this.relations.length];
+			for (int i = 0; i < this.relations.length; i++) {
+				this.versions[i] = catalogue.getVersion(this.relations[i]);
+			}
+
+			this.attributes = new String[slots.size()];
+			this.values = new ArrayList<String>();
+			StringBuilder buckets = new StringBuilder();
+			for (int i = 0; i < slots.size(); i++) {
+				this.attributes[i] = slots.get(i)[0];
+				this.values.add(slots.get(i)[1]);
+				buckets.append(bucket(slots.get(i)[0], slots.get(i)[1])).append(',');
+			}
+			this.buckets = buckets.toString();
+		}
+
+		private boolean isCurrent() {
+			for (int i = 0; i < this.relations.length; i++) {
+				if (catalogue.getVersion(this.relations[i]) != this.versions[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Return the selectivity bucket of the literal in one slot
+		 */
+		private int bucket(String attribute, String value) {
+			Attribute attr;
+			try {
+				attr = catalogue.getAttribute(attribute);
+			} catch (DatabaseException e) {
+				return 0;
+			}
+			double sel = estimator.getSelectivity(attr, value);
+			return sel <= 0 ? Integer.MAX_VALUE : (int) Math.floor(Math.log(1 / sel) / Math.log(BUCKET_RATIO));
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return this.fingerprint + this.values;
+		}
+	}
+
+	private static class Entry {
+		private Key key;
+		private LinkedHashMap<String, Variant> variants;
+
+		Entry(Key key) {
+			this.key = key;
+			this.variants = new LinkedHashMap<String, Variant>(4, 0.75f, true);
+		}
+	}
+
+	private static class Variant {
+		private List<String> values;
+		private OptimiserResult result;
+
+		Variant(List<String> values, OptimiserResult result) {
+			this.values = values;
+			this.result = result;
+		}
+	}
+
+	/**
+	 * A visitor that collects the parts of a query the fingerprint is built
+	 * from. The literals of attr=value predicates are replaced by ? and
+	 * collected as slots, ordered by attribute and then by literal.
+	 */
+	private static class Fingerprint implements PlanVisitor {
+		private List<String> relations = new ArrayList<String>();
+		private List<String> predicates = new ArrayList<String>();
+		private List<String[]> slots = new ArrayList<String[]>();
+		private List<Attribute> projection;
+
+		public void visit(Scan op) { relations.add(op.getRelation().toString()); }
+		public void visit(Project op) { projection = op.getAttributes(); } // the root is visited last
+		public void visit(Select op) { add(op.getPredicate()); }
+		public void visit(Product op) {}
+		public void visit(Join op) { add(op.getPredicate()); }
+
+		/**
+		 * Add a predicate, so that attr=attr predicates read the same
+		 * either way round. Only the literals of attr=value predicates are
+		 * slots; other predicates with literals (ranges, IN lists and so on)
+		 * are part of the fingerprint as they are.
+		 */
+		private void add(Predicate pred) {
+			if (!pred.equalsValue() && !pred.equalsAttribute()) {
+				predicates.add(pred.toString());
+				return;
+			}
+			String left = pred.getLeftAttribute().getName();
+			if (pred.equalsValue()) {
+				predicates.add(left + "=?");
+				slots.add(new String[] { left, pred.getRightValue() });
+				return;
+			}
+			String right = pred.getRightAttribute().getName();
+			predicates.add(left.compareTo(right) <= 0 ? left + "=" + right : right + "=" + left);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			Collections.sort(relations);
+			Collections.sort(predicates);
+			Collections.sort(slots, (a, b) -> a[0].equals(b[0]) ? a[1].compareTo(b[1]) : a[0].compareTo(b[0]));
+			return relations + predicates.toString() + (projection == null ? "*" : projection.toString());
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package sjdb;
+
+/**
+ * This is an interface for the search strategies used by the Optimiser
+ * to choose a join order for a query graph.
+ */
+public interface PlanEnumerator {
+	/**
+	 * Find the cheapest plan that covers every relation in the graph.
+	 * If the graph expires, return the cheapest complete plan found so far.
+	 * @param graph Query graph to be planned
+	 * @return Cheapest plan found
+	 */
+	public Operator enumerate(QueryGraph graph);
+}
@@ -0,0 +1,153 @@
+package sjdb;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class hash-conses the plans built by QueryGraph.combine. A combined
+ * plan is determined by the two sub-plans it combines, so the table maps
+ * each pair of sub-plans (compared by identity) to the plan built from
+ * them. Asking for the same pair again returns the same plan, with its
+ * output and cost already estimated; as the sub-plans are themselves
+ * interned (or are blocked operators, which are never rebuilt), candidates
+ * share their sub-plans, and two plans are structurally identical exactly
+ * when they are the same object.
+ *
+ * Plans are held through weak references: the table keeps only the plans
+ * that some candidate (or the enumerator) still uses, and the entries of
+ * the others are dropped once they have been collected. So an exhaustive
+ * search, which rarely combines the same pair twice, holds no more memory
+ * than it did without the table.
+ *
+ * Interned plans are shared, and must not be changed. An interner may be
+ * used by several threads at once.
+ */
+public class PlanInterner {
+	private ConcurrentHashMap<Key, Entry> table = new ConcurrentHashMap<Key, Entry>();
+	private ReferenceQueue<Operator> collected = new ReferenceQueue<Operator>();
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Return the plan interned for a pair of sub-plans
+	 * @param left Left sub-plan
+	 * @param right Right sub-plan
+	 * @return Interned plan, or null if there is none
+	 */
+	public Operator get(Operator left, Operator right) {
+		Entry entry = this.table.get(new Key(left, right));
+		Operator plan = entry == null ? null : entry.get();
+		if (plan != null) this.hits.incrementAndGet();
+		return plan;
+	}
+
+	/**
+	 * Intern the plan built from a pair of sub-plans. The plan should already
+	 * be costed, since other threads may use it as soon as it is interned.
+	 * @param left Left sub-plan
+	 * @param right Right sub-plan
+	 * @param plan Plan combining them
+	 * @return The given plan, or the one interned for the pair by another
+	 * thread in the meantime
+	 */
+	public Operator intern(Operator left, Operator right, Operator plan) {
+		drop();
+		this.misses.incrementAndGet();
+		Key key = new Key(left, right);
+		Entry entry = new Entry(plan, key, this.collected);
+		while (true) {
+			Entry prev = this.table.putIfAbsent(key, entry);
+			if (prev == null) {
+				return plan;
+			}
+			Operator existing = prev.get();
+			if (existing != null) {
+				return existing;
+			}
+			if (this.table.replace(key, prev, entry)) {
+				return plan;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of requests answered with a plan built before
+	 */
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	/**
+	 * @return the number of plans interned
+	 */
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	/**
+	 * @return the number of plans in the table, including any that have
+	 * been collected but not yet dropped
+	 */
+	public int size() {
+		return this.table.size();
+	}
+
+	/**
+	 * Drop the entries of the plans that have been collected
+	 */
+	private void drop() {
+		for (Reference<? extends Operator> ref = this.collected.poll(); ref != null; ref = this.collected.poll()) {
+			Entry entry = (Entry) ref;
+			this.table.remove(entry.key, entry);
+		}
+	}
+
+	/**
+	 * A pair of sub-plans, compared by identity
+	 */
+	private static class Key {
+		private Operator left;
+		private Operator right;
+
+		Key(Operator left, Operator right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(this.left) * 31 + System.identityHashCode(this.right);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key rhs = (Key) obj;
+			return this.left == rhs.left && this.right == rhs.right;
+		}
+	}
+
+	/**
+	 * A weak reference to an interned plan, which remembers its key so
+	 * that the entry can be dropped once the plan is collected
+	 */
+	private static class Entry extends WeakReference<Operator> {
+		private Key key;
+
+		Entry(Operator plan, Key key, ReferenceQueue<Operator> queue) {
+			super(plan, queue);
+			this.key = key;
+		}
+	}
+}
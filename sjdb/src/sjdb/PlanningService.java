@@ -0,0 +1,311 @@
+package sjdb;
+
+import java.io.StringReader;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class implements an in-process planning service: query texts are
+ * submitted, and each is parsed and optimised on a thread of its own.
+ *
+ * On a Java runtime with virtual threads (Java 21 and later) every request
+ * gets a new virtual thread, so the number of requests in progress is not
+ * limited by a thread pool; on older runtimes a cached pool of daemon
+ * threads is used instead. Admission is bounded: once the given number of
+ * requests is in progress, further requests are rejected until one ends.
+ *
+ * Each request has a deadline, counted from the time it was submitted.
+ * When the deadline passes, the search stops and the best plan found so
+ * far is returned (see Optimiser.optimise(Operator, long, TimeUnit)).
+ * Cancelling a request interrupts its search in the same way. A cancelled
+ * request still counts against admission until its search has stopped.
+ */
+public class PlanningService implements AutoCloseable {
+	private Catalogue catalogue;
+	private Optimiser optimiser;
+	private ExecutorService executor;
+	private boolean virtual;
+	private Semaphore admission;
+
+	private long started;
+	private AtomicLong submitted = new AtomicLong();
+	private AtomicLong rejected = new AtomicLong();
+	private AtomicLong completed = new AtomicLong();
+	private AtomicLong incomplete = new AtomicLong();
+	private AtomicLong failed = new AtomicLong();
+	private AtomicLong totalLatency = new AtomicLong();
+	private AtomicLong maxLatency = new AtomicLong();
+	private AtomicLongArray latencies = new AtomicLongArray(64); // by power of two of nanoseconds
+
+	/**
+	 * Create a new service.
+	 * @param catalogue Catalogue the queries are parsed against
+	 * @param optimiser Optimiser shared by every request
+	 * @param maxRequests Maximum number of requests in progress at once
+	 */
+	public PlanningService(Catalogue catalogue, Optimiser optimiser, int maxRequests) {
+		if (maxRequests < 1) {
+			throw new IllegalArgumentException("Must admit at least one request: " + maxRequests);
+		}
+		this.catalogue = catalogue;
+		this.optimiser = optimiser;
+		this.admission = new Semaphore(maxRequests);
+		this.started = System.nanoTime();
+
+		ExecutorService executor = null;
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			executor = (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			// no virtual threads before Java 21
+		}
+		this.virtual = executor != null;
+		this.executor = executor != null ? executor : Executors.newCachedThreadPool(new ThreadFactory() {
+			private AtomicLong count = new AtomicLong();
+
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "sjdb-planner-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Return true if each request runs on a virtual thread
+	 * @return true if virtual threads are used
+	 */
+	public boolean usesVirtualThreads() {
+		return this.virtual;
+	}
+
+	/**
+	 * Submit a query for planning.
+	 * @param query Query text, in the syntax accepted by QueryParser
+	 * @param budget Time allowed for the request, counted from now
+	 * @param unit Unit of the budget
+	 * @return Future holding the plan found, or the exception that stopped
+	 * the request (such as a DatabaseException for an unknown relation)
+	 * @throws RejectedExecutionException if too many requests are in progress,
+	 * or the service has been closed
+	 */
+	public Future<OptimiserResult> submit(final String query, long budget, TimeUnit unit) {
+		if (budget < 0) {
+			throw new IllegalArgumentException("Negative time budget: " + budget);
+		}
+		final long submitted = System.nanoTime();
+		final long deadline = submitted + unit.toNanos(budget);
+
+		this.submitted.incrementAndGet();
+		if (!this.admission.tryAcquire()) {
+			this.rejected.incrementAndGet();
+			throw new RejectedExecutionException("Too many planning requests in progress");
+		}
+
+		// the permit is released when the request stops running, or by done()
+		// if it is cancelled before it starts (and so never runs)
+		final AtomicBoolean started = new AtomicBoolean();
+		FutureTask<OptimiserResult> task = new FutureTask<OptimiserResult>(new Callable<OptimiserResult>() {
+			public OptimiserResult call() throws Exception {
+				if (!started.compareAndSet(false, true)) {
+					return null; // cancelled as it started; done() has released the permit
+				}
+				try {
+					Operator plan = new QueryParser(catalogue, new StringReader(query)).parse();
+					long remaining = Math.max(0, deadline - System.nanoTime());
+					OptimiserResult result = optimiser.optimise(plan, remaining, TimeUnit.NANOSECONDS);
+					record(submitted, result.isComplete());
+					return result;
+				} catch (Exception e) {
+					failed.incrementAndGet();
+					throw e;
+				} finally {
+					admission.release();
+				}
+			}
+		}) {
+			protected void done() {
+				if (started.compareAndSet(false, true)) {
+					admission.release();
+				}
+			}
+		};
+
+		try {
+			this.executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			this.admission.release();
+			this.rejected.incrementAndGet();
+			throw e;
+		}
+		return task;
+	}
+
+	/**
+	 * Stop accepting requests. Requests in progress are allowed to finish.
+	 */
+	public void close() {
+		this.executor.shutdown();
+	}
+
+	/**
+	 * Wait for the requests in progress after the service has been closed
+	 * @param timeout Longest time to wait
+	 * @param unit Unit of the timeout
+	 * @return true if every request finished
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return this.executor.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * Return the statistics of the requests handled so far
+	 * @return Snapshot of the statistics
+	 */
+	public Stats getStats() {
+		long[] counts = new long[this.latencies.length()];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = this.latencies.get(i);
+		}
+		return new Stats(System.nanoTime() - this.started, this.submitted.get(), this.rejected.get(),
+				this.completed.get(), this.incomplete.get(), this.failed.get(),
+				this.totalLatency.get(), this.maxLatency.get(), counts);
+	}
+
+	private void record(long submitted, boolean complete) {
+		long latency = System.nanoTime() - submitted;
+		this.completed.incrementAndGet();
+		if (!complete) this.incomplete.incrementAndGet();
+		this.totalLatency.addAndGet(latency);
+		for (long max = this.maxLatency.get(); latency > max && !this.maxLatency.compareAndSet(max, latency); ) {
+			max = this.maxLatency.get();
+		}
+		this.latencies.incrementAndGet(63 - Long.numberOfLeadingZeros(Math.max(1, latency)));
+	}
+
+	/**
+	 * A snapshot of the throughput and latency of a planning service.
+	 * Latencies run from submission to completion, so they include any
+	 * time a request spent waiting for a thread.
+	 */
+	public static class Stats {
+		private long elapsed;
+		private long submitted;
+		private long rejected;
+		private long completed;
+		private long incomplete;
+		private long failed;
+		private long totalLatency;
+		private long maxLatency;
+		private long[] latencies;
+
+		private Stats(long elapsed, long submitted, long rejected, long completed, long incomplete,
+				long failed, long totalLatency, long maxLatency, long[] latencies) {
+			this.elapsed = elapsed;
+			this.submitted = submitted;
+			this.rejected = rejected;
+			this.completed = completed;
+			this.incomplete = incomplete;
+			this.failed = failed;
+			this.totalLatency = totalLatency;
+			this.maxLatency = maxLatency;
+			this.latencies = latencies;
+		}
+
+		/**
+		 * @return the number of requests submitted, including rejected ones
+		 */
+		public long getSubmitted() {
+			return this.submitted;
+		}
+
+		/**
+		 * @return the number of requests rejected at admission
+		 */
+		public long getRejected() {
+			return this.rejected;
+		}
+
+		/**
+		 * @return the number of requests that returned a plan
+		 */
+		public long getCompleted() {
+			return this.completed;
+		}
+
+		/**
+		 * @return the number of plans returned because the deadline passed
+		 */
+		public long getIncomplete() {
+			return this.incomplete;
+		}
+
+		/**
+		 * @return the number of requests that failed with an exception
+		 */
+		public long getFailed() {
+			return this.failed;
+		}
+
+		/**
+		 * @return the number of plans returned per second since the service started
+		 */
+		public double getThroughput() {
+			return this.completed / Math.max(1e-9, this.elapsed / 1e9);
+		}
+
+		/**
+		 * @return the mean latency of the completed requests, in milliseconds
+		 */
+		public double getMeanLatency() {
+			return this.completed == 0 ? 0 : this.totalLatency / 1e6 / this.completed;
+		}
+
+		/**
+		 * @return the largest latency of the completed requests, in milliseconds
+		 */
+		public double getMaxLatency() {
+			return this.maxLatency / 1e6;
+		}
+
+		/**
+		 * Return an upper bound on the given percentile of the latency of
+		 * the completed requests, accurate to a factor of two
+		 * @param percentile Percentile, between 0 and 100
+		 * @return Latency in milliseconds
+		 */
+		public double getLatency(double percentile) {
+			long rank = (long) Math.ceil(this.completed * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < this.latencies.length; i++) {
+				seen += this.latencies[i];
+				if (seen >= rank && seen > 0) {
+					return Math.min(this.maxLatency, 2 * (1L << i)) / 1e6;
+				}
+			}
+			return 0;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return String.format("%d submitted, %d rejected, %d completed (%d incomplete), %d failed; "
+					+ "%.1f plans/s; latency mean %.2f ms, p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+					this.submitted, this.rejected, this.completed, this.incomplete, this.failed,
+					getThroughput(), getMeanLatency(), getLatency(50), getLatency(99), getMaxLatency());
+		}
+	}
+}
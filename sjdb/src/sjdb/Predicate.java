@@ -1,18 +1,72 @@
 package sjdb;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
 /**
- * This class is used to represent the predicates associated with 
+ * This class is used to represent the predicates associated with
  * joins and select operators. Note that, while a string value is
- * required for predicates of the form attr=value, this values is 
- * only used by the toString() method; a future version of
- * Attribute which uses more expressive synopses may change this.
- * 
+ * required for predicates of the form attr=value, this value is
+ * only used by the toString() method and, for attributes that have
+ * a Synopsis, to estimate the selectivity of the predicate.
+ *
+ * Besides equality, a predicate may compare an attribute with a value
+ * or with another attribute using any of the comparisons below, test
+ * whether an attribute lies between two values or in a list of values,
+ * or be a disjunction of other predicates. Only predicates of the form
+ * attr=attr can be used as join predicates; the others are applied by
+ * select operators.
+ *
  * @author nmg
  */
 public class Predicate {
+
+	/**
+	 * The comparisons a predicate may make
+	 */
+	public enum Comparison {
+		EQ("="), NE("<>"), LT("<"), LE("<="), GT(">"), GE(">="), BETWEEN(" BETWEEN "), IN(" IN ");
+
+		private String symbol;
+
+		private Comparison(String symbol) {
+			this.symbol = symbol;
+		}
+
+		/**
+		 * @return the symbol of the comparison, as written in a query
+		 */
+		public String getSymbol() {
+			return this.symbol;
+		}
+
+		/**
+		 * Return the comparison written with the given symbol (!= is
+		 * accepted for <>)
+		 * @param symbol Symbol of the comparison
+		 * @return Comparison
+		 */
+		public static Comparison of(String symbol) {
+			if (symbol.equals("!=")) {
+				return NE;
+			}
+			for (Comparison c : values()) {
+				if (c.symbol.trim().equals(symbol.trim())) {
+					return c;
+				}
+			}
+			throw new IllegalArgumentException("Unknown comparison: " + symbol);
+		}
+	}
+
 	private Attribute leftAttribute;
 	private Attribute rightAttribute;
 	private String rightValue;
+	private Comparison comparison = Comparison.EQ;
+	private List<String> values; // for BETWEEN and IN
+	private List<Predicate> disjuncts; // for disjunctions
 
 	/**
 	 * Create a predicate of the form attr=attr
@@ -34,46 +88,213 @@ public class Predicate {
 		this.rightValue = value;
 	}
 
+	/**
+	 * Create a predicate of the form attr op attr
+	 * @param left
+	 * @param comparison Any comparison but BETWEEN and IN
+	 * @param right
+	 */
+	public Predicate(Attribute left, Comparison comparison, Attribute right) {
+		this(left, right);
+		if (comparison == Comparison.BETWEEN || comparison == Comparison.IN) {
+			throw new IllegalArgumentException("Cannot compare two attributes with" + comparison.getSymbol());
+		}
+		this.comparison = comparison;
+	}
+
+	/**
+	 * Create a predicate of the form attr op value
+	 * @param left
+	 * @param comparison Any comparison but BETWEEN and IN
+	 * @param value
+	 */
+	public Predicate(Attribute left, Comparison comparison, String value) {
+		this(left, value);
+		if (comparison == Comparison.BETWEEN || comparison == Comparison.IN) {
+			throw new IllegalArgumentException("Expected a list of values for" + comparison.getSymbol());
+		}
+		this.comparison = comparison;
+	}
+
+	/**
+	 * Create a predicate of the form attr BETWEEN value AND value, or
+	 * attr IN (value,...,value)
+	 * @param left
+	 * @param comparison BETWEEN or IN
+	 * @param values The lowest and highest values for BETWEEN (both
+	 * included in the range), or the values for IN
+	 */
+	public Predicate(Attribute left, Comparison comparison, List<String> values) {
+		if (comparison == Comparison.BETWEEN ? values.size() != 2 : comparison != Comparison.IN || values.isEmpty()) {
+			throw new IllegalArgumentException("Cannot apply" + comparison.getSymbol() + "to values " + values);
+		}
+		this.leftAttribute = left;
+		this.comparison = comparison;
+		this.values = Collections.unmodifiableList(new ArrayList<String>(values));
+	}
+
+	/**
+	 * Create a predicate that holds if any of the given predicates holds
+	 * @param disjuncts
+	 */
+	public Predicate(List<Predicate> disjuncts) {
+		if (disjuncts.isEmpty()) {
+			throw new IllegalArgumentException("Empty disjunction");
+		}
+		this.disjuncts = Collections.unmodifiableList(new ArrayList<Predicate>(disjuncts));
+	}
+
 	/**
 	 * Return true if this predicate is of the form attr=value
 	 * @return
 	 */
 	public boolean equalsValue() {
-		return this.rightValue != null;
+		return this.rightValue != null && this.comparison == Comparison.EQ;
+	}
+
+	/**
+	 * Return true if this predicate is of the form attr=attr, and so may
+	 * be used as a join predicate
+	 * @return
+	 */
+	public boolean equalsAttribute() {
+		return this.rightAttribute != null && this.comparison == Comparison.EQ;
 	}
-	
+
 	/**
-	 * Return ATTR for predicates of the form ATTR=attr or ATTR=value
+	 * Return true if this predicate is a disjunction of other predicates
+	 * @return
+	 */
+	public boolean isDisjunction() {
+		return this.disjuncts != null;
+	}
+
+	/**
+	 * Return the comparison made by this predicate (EQ for disjunctions)
+	 * @return
+	 */
+	public Comparison getComparison() {
+		return this.comparison;
+	}
+
+	/**
+	 * Return ATTR for predicates of the form ATTR op attr, ATTR op value,
+	 * ATTR BETWEEN ... or ATTR IN ..., or null for disjunctions
 	 * @return left attribute
 	 */
 	public Attribute getLeftAttribute() {
 		return this.leftAttribute;
 	}
-	
+
 	/**
-	 * Return ATTR for predicates of the form attr=ATTR
+	 * Return ATTR for predicates of the form attr op ATTR, or null
 	 * @return right attribute
 	 */
 	public Attribute getRightAttribute() {
 		return this.rightAttribute;
 	}
-	
+
 	/**
-	 * Return VALUE for predicates of the form attr=VALUE
+	 * Return VALUE for predicates of the form attr op VALUE, or null
 	 * @return right value
 	 */
 	public String getRightValue() {
 		return this.rightValue;
 	}
-	
+
+	/**
+	 * Return the values of predicates of the form attr BETWEEN VALUE AND
+	 * VALUE or attr IN (VALUE,...), or null
+	 * @return values
+	 */
+	public List<String> getValues() {
+		return this.values;
+	}
+
+	/**
+	 * Return the predicates of a disjunction, or null
+	 * @return disjuncts
+	 */
+	public List<Predicate> getDisjuncts() {
+		return this.disjuncts;
+	}
+
+	/**
+	 * Return every attribute used by this predicate
+	 * @return attributes
+	 */
+	public List<Attribute> getAttributes() {
+		List<Attribute> ret = new ArrayList<Attribute>(2);
+		addAttributes(ret);
+		return ret;
+	}
+
+	private void addAttributes(List<Attribute> attrs) {
+		if (this.disjuncts != null) {
+			for (Predicate pred : this.disjuncts) {
+				pred.addAttributes(attrs);
+			}
+			return;
+		}
+		attrs.add(this.leftAttribute);
+		if (this.rightAttribute != null) {
+			attrs.add(this.rightAttribute);
+		}
+	}
+
+	/**
+	 * Return a copy of this predicate with every attribute replaced by the
+	 * given function, or this predicate if none is changed
+	 * @param replace Function giving the replacement of an attribute
+	 * @return predicate
+	 */
+	public Predicate replaceAttributes(UnaryOperator<Attribute> replace) {
+		if (this.disjuncts != null) {
+			List<Predicate> disjuncts = new ArrayList<Predicate>(this.disjuncts.size());
+			boolean changed = false;
+			for (Predicate pred : this.disjuncts) {
+				Predicate replaced = pred.replaceAttributes(replace);
+				changed |= replaced != pred;
+				disjuncts.add(replaced);
+			}
+			return changed ? new Predicate(disjuncts) : this;
+		}
+		Attribute left = replace.apply(this.leftAttribute);
+		Attribute right = this.rightAttribute == null ? null : replace.apply(this.rightAttribute);
+		if (left == this.leftAttribute && right == this.rightAttribute) {
+			return this;
+		}
+		if (this.values != null) {
+			return new Predicate(left, this.comparison, this.values);
+		} else if (right != null) {
+			return new Predicate(left, this.comparison, right);
+		} else {
+			return new Predicate(left, this.comparison, this.rightValue);
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
 	public String toString() {
-		if (this.rightValue == null) {
-			return this.leftAttribute.toString() + "=" + this.rightAttribute.toString(); 
+		if (this.disjuncts != null) {
+			StringBuilder ret = new StringBuilder();
+			for (Predicate pred : this.disjuncts) {
+				ret.append(ret.length() > 0 ? " OR " : "").append(pred);
+			}
+			return ret.toString();
+		} else if (this.comparison == Comparison.BETWEEN) {
+			return this.leftAttribute.toString() + " BETWEEN \"" + this.values.get(0) + "\" AND \"" + this.values.get(1) + "\"";
+		} else if (this.comparison == Comparison.IN) {
+			StringBuilder ret = new StringBuilder();
+			for (String value : this.values) {
+				ret.append(ret.length() > 0 ? "," : "").append('"').append(value).append('"');
+			}
+			return this.leftAttribute.toString() + " IN (" + ret + ")";
+		} else if (this.rightValue == null) {
+			return this.leftAttribute.toString() + this.comparison.getSymbol() + this.rightAttribute.toString();
 		} else {
-			return this.leftAttribute.toString() + "=\"" + this.rightValue + "\"";
+			return this.leftAttribute.toString() + this.comparison.getSymbol() + "\"" + this.rightValue + "\"";
 		}
 	}
 }
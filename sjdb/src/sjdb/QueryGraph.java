@@ -0,0 +1,508 @@
+package sjdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * This class describes the join problem handed to a plan enumerator: one
+ * blocked operator per scanned relation (with its selects and projects
+ * already pushed down), the predicates that still have to be applied
+ * between them, and the attributes required by the final projection.
+ *
+ * Sets of relations are represented as bitmasks over the relation indices,
+ * so a query may reference at most 64 relations. Sets of attributes are
+ * bitsets over the attribute indices assigned by the Catalogue, so every
+ * attribute output by the blocked operators must come from a catalogue.
+ *
+ * By default enumerators may build bushy plans; a graph can be restricted
+ * to left-deep plans, in which the right input of every join or product is
+ * a single relation.
+ *
+ * A graph may also carry a deadline. Enumerators poll isExpired() and,
+ * once it returns true, stop searching and return the cheapest complete
+ * plan they have found so far.
+ *
+ * Candidate plans built by combine, and the complete plans found, are
+ * reported to the graph's OptimiserListener.
+ *
+ * The plans built by combine are hash-consed (see PlanInterner): combining
+ * the same two sub-plans again returns the plan built the first time, as
+ * long as any candidate still uses it, so it is built and costed once.
+ */
+public class QueryGraph {
+	private List<Operator> relations;
+	private List<Predicate> predicates;
+	private long[] predicateMasks;
+	private long[] neighbours;
+	private BitSet projected;
+	private int[] ids; // sorted indices of the attributes output by the relations
+	private int[] owners; // relation producing each of those attributes
+	private long[] pending; // relations of the predicates that use each of those attributes
+	private Estimator estimator;
+	private PlanInterner interner;
+	private boolean leftDeep;
+	private boolean bounded;
+	private long deadline;
+	private volatile boolean expired;
+	private Thread owner; // the planning thread, whose interrupt stops worker threads too
+	private OptimiserListener listener = OptimiserListener.NONE;
+	private volatile long bestCost = Long.MAX_VALUE;
+
+	/**
+	 * Create a new query graph.
+	 * @param relations Blocked operator for each scanned relation
+	 * @param predicates Predicates left to be applied between relations
+	 * @param projected Indices of the attributes required by the root of the plan
+	 * @param estimator Estimator used to cost candidate plans
+	 */
+	public QueryGraph(List<Operator> relations, List<Predicate> predicates, BitSet projected, Estimator estimator) {
+		if (relations.size() > 64) {
+			throw new IllegalArgumentException("Cannot plan a query over more than 64 relations");
+		}
+		this.relations = new ArrayList<Operator>(relations);
+		this.predicates = new ArrayList<Predicate>(predicates);
+		this.projected = projected;
+		this.estimator = estimator;
+		this.interner = new PlanInterner();
+		this.owner = Thread.currentThread();
+
+		// attributes are looked up by binary search, so the arrays stay
+		// as small as the query however many attributes the catalogue has
+		int count = 0;
+		for (Operator rel : this.relations) {
+			count += rel.getOutput().getAttributes().size();
+		}
+		int[] ids = new int[count];
+		count = 0;
+		for (Operator rel : this.relations) {
+			for (Attribute attr : rel.getOutput().getAttributes()) {
+				if (attr.getId() >= 0) ids[count++] = attr.getId();
+			}
+		}
+		Arrays.sort(ids, 0, count);
+		int distinct = 0;
+		for (int i = 0; i < count; i++) {
+			if (distinct == 0 || ids[i] != ids[distinct - 1]) ids[distinct++] = ids[i];
+		}
+		this.ids = Arrays.copyOf(ids, distinct);
+		this.owners = new int[distinct];
+		Arrays.fill(this.owners, -1);
+		for (int i = 0; i < this.relations.size(); i++) {
+			for (Attribute attr : this.relations.get(i).getOutput().getAttributes()) {
+				int slot = slotOf(attr);
+				if (slot >= 0 && this.owners[slot] < 0) this.owners[slot] = i;
+			}
+		}
+
+		this.predicateMasks = new long[this.predicates.size()];
+		for (int i = 0; i < this.predicates.size(); i++) {
+			for (Attribute attr : this.predicates.get(i).getAttributes()) {
+				this.predicateMasks[i] |= maskOf(attr);
+			}
+		}
+
+		// an attribute is required until every predicate that uses it is applied
+		this.pending = new long[distinct];
+		for (int i = 0; i < this.predicates.size(); i++) {
+			for (Attribute attr : this.predicates.get(i).getAttributes()) {
+				addPending(attr, this.predicateMasks[i]);
+			}
+		}
+
+		// two relations are neighbours if a predicate connects them
+		this.neighbours = new long[this.relations.size()];
+		for (long predMask : this.predicateMasks) {
+			if (Long.bitCount(predMask) < 2) continue;
+			for (int i = 0; i < this.neighbours.length; i++) {
+				if ((predMask & (1L << i)) != 0) {
+					this.neighbours[i] |= predMask & ~(1L << i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return the number of relations in this graph
+	 * @return Relation count
+	 */
+	public int size() {
+		return this.relations.size();
+	}
+
+	/**
+	 * Return the blocked operator for the relation with the given index
+	 * @param index Relation index
+	 * @return Blocked operator
+	 */
+	public Operator getRelation(int index) {
+		return this.relations.get(index);
+	}
+
+	/**
+	 * Return true if enumerators must only build left-deep plans
+	 * @return true if restricted to left-deep plans
+	 */
+	public boolean isLeftDeep() {
+		return this.leftDeep;
+	}
+
+	/**
+	 * Restrict enumerators to left-deep plans, or allow bushy plans
+	 * @param leftDeep true to restrict to left-deep plans
+	 */
+	public void setLeftDeep(boolean leftDeep) {
+		this.leftDeep = leftDeep;
+	}
+
+	/**
+	 * Return the listener told about the progress of the search
+	 * @return Listener
+	 */
+	public OptimiserListener getListener() {
+		return this.listener;
+	}
+
+	/**
+	 * Set the listener told about the progress of the search
+	 * @param listener Listener
+	 */
+	public void setListener(OptimiserListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Report a complete plan; the listener is told if it is cheaper than
+	 * every complete plan reported before. Only improvements reported to a
+	 * listener other than NONE take a lock.
+	 * @param plan Plan covering every relation
+	 * @param cost Estimated cost of the plan
+	 */
+	public void complete(Operator plan, long cost) {
+		if (this.listener == OptimiserListener.NONE || cost >= this.bestCost) {
+			return;
+		}
+		synchronized (this) {
+			if (cost < this.bestCost) {
+				this.bestCost = cost;
+				this.listener.bestImproved(plan, cost);
+			}
+		}
+	}
+
+	/**
+	 * Stop the search at the given deadline
+	 * @param deadline Value of System.nanoTime() at which to stop
+	 */
+	public void setDeadline(long deadline) {
+		this.bounded = true;
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Return true if the search should stop, because the deadline has passed
+	 * or the planning thread (the one that created the graph) has been
+	 * interrupted. Worker threads planning the same graph check the planning
+	 * thread, not themselves, and once a graph has expired it stays expired,
+	 * so they all stop.
+	 * @return true if the search should stop
+	 */
+	public boolean isExpired() {
+		if (!this.expired && ((this.bounded && System.nanoTime() - this.deadline >= 0)
+				|| this.owner.isInterrupted())) {
+			this.expired = true;
+		}
+		return this.expired;
+	}
+
+	/**
+	 * Return the table of the plans built by combine
+	 * @return Interner
+	 */
+	public PlanInterner getInterner() {
+		return this.interner;
+	}
+
+	/**
+	 * Return the mask of the relations joined to the given relation by
+	 * at least one predicate
+	 * @param index Relation index
+	 * @return Mask of neighbouring relations
+	 */
+	public long getNeighbours(int index) {
+		return this.neighbours[index];
+	}
+
+	/**
+	 * Return the mask of the relations outside the given set that are joined
+	 * to a relation in the set by at least one predicate
+	 * @param set Relations
+	 * @return Mask of neighbouring relations
+	 */
+	public long getNeighbourhood(long set) {
+		long adj = 0;
+		for (long rest = set; rest != 0; rest &= rest - 1) {
+			adj |= this.neighbours[Long.numberOfTrailingZeros(rest)];
+		}
+		return adj & ~set;
+	}
+
+	/**
+	 * Return the relations reachable from the given set through predicates
+	 * between relations in the limiting set
+	 * @param set Starting relations
+	 * @param within Relations that may be visited
+	 * @return Mask of reachable relations
+	 */
+	public long expand(long set, long within) {
+		long reached = set & within;
+		long frontier = reached;
+		while (frontier != 0) {
+			frontier = getNeighbourhood(frontier) & within & ~reached;
+			reached |= frontier;
+		}
+		return reached;
+	}
+
+	/**
+	 * Return true if the given relations form a connected subgraph
+	 * @param mask Relations to be checked
+	 * @return true if connected
+	 */
+	public boolean isConnected(long mask) {
+		return mask != 0 && expand(mask & -mask, mask) == mask;
+	}
+
+	/**
+	 * Return the mask containing every relation in this graph
+	 * @return Mask of all relations
+	 */
+	public long getAllMask() {
+		return this.relations.size() == 64 ? -1L : (1L << this.relations.size()) - 1;
+	}
+
+	/**
+	 * Return the cost of the given plan
+	 * @param plan Plan to be costed
+	 * @return Estimated cost
+	 */
+	public long getCost(Operator plan) {
+		return this.estimator.getCost(plan);
+	}
+
+	/**
+	 * Combine two disjoint sub-plans into a plan over the union of their
+	 * relations. The first attr=attr predicate that spans both sides becomes
+	 * a join (a product is used if there is none), the remaining spanning
+	 * predicates, including any ranges and disjunctions over both sides,
+	 * become selects, and attributes no longer required are projected out.
+	 *
+	 * @param left Left sub-plan
+	 * @param leftMask Relations covered by the left sub-plan
+	 * @param right Right sub-plan
+	 * @param rightMask Relations covered by the right sub-plan
+	 * @return Combined plan
+	 */
+	public Operator combine(Operator left, long leftMask, Operator right, long rightMask) {
+		long mask = leftMask | rightMask;
+		Operator result = this.interner.get(left, right);
+		if (result == null) {
+			result = this.interner.intern(left, right, build(left, leftMask, right, rightMask));
+		}
+
+		long cost = this.estimator.getCost(result);
+		this.listener.candidateCosted(mask, result, cost);
+		if (mask == getAllMask()) {
+			complete(result, cost);
+		}
+		return result;
+	}
+
+	/**
+	 * Build and cost the plan combining two sub-plans
+	 */
+	private Operator build(Operator left, long leftMask, Operator right, long rightMask) {
+		long mask = leftMask | rightMask;
+		Operator result = null;
+
+		// the first attr=attr predicate becomes the join, the others selects
+		int join = -1;
+		for (int i = 0; i < this.predicates.size() && join < 0; i++) {
+			if (spans(i, leftMask, rightMask) && this.predicates.get(i).equalsAttribute()) {
+				join = i;
+			}
+		}
+		if (join >= 0) {
+			result = new Join(left, right, this.predicates.get(join));
+		} else {
+			result = new Product(left, right);
+		}
+		for (int i = 0; i < this.predicates.size(); i++) {
+			if (i != join && spans(i, leftMask, rightMask)) {
+				result = new Select(result, this.predicates.get(i));
+			}
+		}
+
+		this.estimator.getCost(result);
+		return project(result, mask);
+	}
+
+	/**
+	 * Return true if a predicate uses relations on both sides and no others
+	 */
+	private boolean spans(int pred, long leftMask, long rightMask) {
+		long predMask = this.predicateMasks[pred];
+		return (predMask & ~(leftMask | rightMask)) == 0 && (predMask & ~leftMask) != 0 && (predMask & ~rightMask) != 0;
+	}
+
+	/**
+	 * Combine disjoint sub-plans that have no predicates between them with
+	 * products. For bushy plans the two smallest sub-plans are combined first
+	 * (so products of small inputs are built before they meet large ones);
+	 * for left-deep plans the sub-plans are added smallest first, one
+	 * relation at a time.
+	 *
+	 * @param plans Sub-plans to be combined
+	 * @param masks Relations covered by each sub-plan
+	 * @return Combined plan
+	 */
+	public Operator product(List<Operator> plans, List<Long> masks) {
+		List<Operator> rest = new ArrayList<Operator>(plans);
+		List<Long> restMasks = new ArrayList<Long>(masks);
+
+		if (this.leftDeep) {
+			int first = smallest(rest, -1);
+			Operator result = rest.remove(first);
+			long mask = restMasks.remove(first);
+			while (!rest.isEmpty()) {
+				int next = smallest(rest, -1);
+				result = append(result, mask, rest.remove(next));
+				mask |= restMasks.remove(next);
+			}
+			return result;
+		}
+
+		while (rest.size() > 1) {
+			int first = smallest(rest, -1);
+			int second = smallest(rest, first);
+			Operator result = combine(rest.get(first), restMasks.get(first), rest.get(second), restMasks.get(second));
+			long mask = restMasks.get(first) | restMasks.get(second);
+
+			rest.remove(Math.max(first, second));
+			rest.remove(Math.min(first, second));
+			restMasks.remove(Math.max(first, second));
+			restMasks.remove(Math.min(first, second));
+			rest.add(result);
+			restMasks.add(mask);
+		}
+		return rest.get(0);
+	}
+
+	/**
+	 * Add the relations of a left-deep plan to another plan, in the order
+	 * in which they are joined, keeping the result left-deep
+	 */
+	private Operator append(Operator plan, long mask, Operator other) {
+		List<Integer> order = new ArrayList<Integer>();
+		relationsOf(other, order);
+		for (int rel : order) {
+			plan = combine(plan, mask, this.relations.get(rel), 1L << rel);
+			mask |= 1L << rel;
+		}
+		return plan;
+	}
+
+	/**
+	 * Collect the indices of the relations in a plan, left to right
+	 */
+	private void relationsOf(Operator op, List<Integer> order) {
+		int index = this.relations.indexOf(op);
+		if (index >= 0) {
+			order.add(index);
+		} else if (!(op instanceof Scan)) {
+			for (Operator input : op.getInputs()) {
+				relationsOf(input, order);
+			}
+		}
+	}
+
+	/**
+	 * Return the index of the plan with the fewest output tuples, ignoring
+	 * the plan at the given index
+	 */
+	private static int smallest(List<Operator> plans, int skip) {
+		int best = -1;
+		for (int i = 0; i < plans.size(); i++) {
+			if (i == skip) continue;
+			if (best < 0 || plans.get(i).getOutput().getTupleCount() < plans.get(best).getOutput().getTupleCount()) {
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Project the output of a plan over the given relations onto the
+	 * attributes still required by the unapplied predicates and the root.
+	 */
+	private Operator project(Operator op, long mask) {
+		List<Attribute> available = op.getOutput().getAttributes();
+		int kept = 0;
+		for (Attribute attr : available) {
+			if (isRequired(attr, mask)) kept++;
+		}
+
+		// only project when it actually removes something
+		if (kept == 0 || kept == available.size()) {
+			return op;
+		}
+		List<Attribute> remain = new ArrayList<Attribute>(kept);
+		for (Attribute attr : available) {
+			if (isRequired(attr, mask)) remain.add(attr);
+		}
+		Operator result = new Project(op, remain);
+		this.estimator.getCost(result);
+		return result;
+	}
+
+	/**
+	 * Return true if an attribute is projected by the root, or used by a
+	 * predicate not yet applied within the given relations
+	 */
+	private boolean isRequired(Attribute attr, long mask) {
+		if (attr.getId() >= 0 && this.projected.get(attr.getId())) {
+			return true;
+		}
+		int slot = slotOf(attr);
+		return slot >= 0 && (this.pending[slot] & ~mask) != 0;
+	}
+
+	private void addPending(Attribute attr, long predMask) {
+		int slot = slotOf(attr);
+		if (slot >= 0) this.pending[slot] |= predMask;
+	}
+
+	/**
+	 * Return the position of an attribute in ids, or -1 if no relation
+	 * outputs it
+	 */
+	private int slotOf(Attribute attr) {
+		if (attr.getId() < 0) {
+			return -1;
+		}
+		return Math.max(-1, Arrays.binarySearch(this.ids, attr.getId()));
+	}
+
+	/**
+	 * Return the mask of the relation whose blocked operator produces
+	 * the given attribute, or zero if there is none.
+	 */
+	private long maskOf(Attribute attr) {
+		int slot = slotOf(attr);
+		if (slot < 0 || this.owners[slot] < 0) {
+			return 0;
+		}
+		return 1L << this.owners[slot];
+	}
+}
@@ -5,6 +5,7 @@ package sjdb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
@@ -18,10 +19,18 @@ import java.util.regex.Matcher;
  * FROM <relation name>,<relation name>,...,<relation name>
  * WHERE <predicate>,<predicate>,...,<predicate>
  * 
- * where <predicate> is of one of the following two forms:
+ * where <predicate> is of one of the following forms:
  * 
  * <attribute name>="<value>"
  * <attribute name>=<attribute name>
+ * <attribute name><op>"<value>"
+ * <attribute name><op><attribute name>
+ * <attribute name> BETWEEN "<value>" AND "<value>"
+ * <attribute name> IN ("<value>","<value>",...,"<value>")
+ * <predicate> OR <predicate> OR ... OR <predicate>
+ * 
+ * where <op> is one of =, <>, !=, <, <=, > and >=. A disjunction may be
+ * enclosed in parentheses.
  * 
  * The WHERE line (corresponding to the select operators) is optional and 
  * may be omitted; the other lines are required.
@@ -32,13 +41,20 @@ import java.util.regex.Matcher;
  * with the given attributes.
  * 
  * Note that the author of this class was extremely lazy, and so the parsing 
- * is unforgiving and may be sensitive to extraneous whitespace. In particular, 
- * values in predicates that contain spaces (or for that matter commas) will 
- * break the parsing of the WHERE clause.
+ * is unforgiving and may be sensitive to extraneous whitespace. Values in
+ * predicates may contain spaces and commas, but not double quotes.
  * 
  * @author nmg
  */
 public class QueryParser {
+	private static final Pattern COMMA = Pattern.compile("\\s*,\\s*");
+	private static final Pattern OR = Pattern.compile("\\s+OR\\s+");
+	private static final Pattern VALUE = Pattern.compile("\"([^\"]*)\"");
+	private static final Pattern COMPARE_VALUE = Pattern.compile("(\\w+)\\s*(<=|>=|<>|!=|=|<|>)\\s*\"([^\"]*)\"");
+	private static final Pattern COMPARE_ATTRIBUTE = Pattern.compile("(\\w+)\\s*(<=|>=|<>|!=|=|<|>)\\s*(\\w+)");
+	private static final Pattern BETWEEN = Pattern.compile("(\\w+)\\s+BETWEEN\\s+\"([^\"]*)\"\\s+AND\\s+\"([^\"]*)\"");
+	private static final Pattern IN = Pattern.compile("(\\w+)\\s+IN\\s*\\((.*)\\)");
+
 	private BufferedReader reader;
 	private Catalogue catalogue;
 
@@ -138,11 +154,11 @@ public class QueryParser {
 	private Operator parseSelect(String line, Operator op) {
 		String[] prds = line.split("WHERE\\s+");
 
-		String[] pred = prds[1].split("\\s*,\\s*");
+		List<String> pred = split(prds[1], COMMA);
 		Operator ret = op;
 		
-		for (int i=0; i<pred.length; i++) {
-			ret = buildSelect(pred[i].trim(), ret);
+		for (int i=0; i<pred.size(); i++) {
+			ret = buildSelect(pred.get(i).trim(), ret);
 		}
 		
 		return ret;
@@ -155,18 +171,104 @@ public class QueryParser {
 	 * @return
 	 */
 	private Operator buildSelect(String pred, Operator op) {
-		Pattern p = Pattern.compile("(\\w+)=\"(\\w+)\"");
-		Matcher m = p.matcher(pred);
-		Predicate ret;
-		
-		if (m.matches()) {
-			ret = new Predicate(new Attribute(m.group(1)), m.group(2));
-		} else {
-			String[] atts = pred.split("=");
-			ret = new Predicate(new Attribute(atts[0]), new Attribute(atts[1]));
+		return new Select(op, buildPredicate(pred));
+	}
+	
+	/**
+	 * Build a predicate, which may be a disjunction of predicates.
+	 * @param pred
+	 * @return
+	 */
+	private Predicate buildPredicate(String pred) {
+		if (enclosed(pred)) {
+			pred = pred.substring(1, pred.length() - 1).trim(); // parenthesised disjunction
+		}
+		List<String> terms = split(pred, OR);
+		if (terms.size() > 1) {
+			List<Predicate> disjuncts = new ArrayList<Predicate>();
+			for (String term : terms) {
+				disjuncts.add(buildPredicate(term.trim()));
+			}
+			return new Predicate(disjuncts);
 		}
 		
-		return new Select(op, ret);
+		Matcher m;
+		if ((m = BETWEEN.matcher(pred)).matches()) {
+			List<String> values = new ArrayList<String>();
+			values.add(m.group(2));
+			values.add(m.group(3));
+			return new Predicate(attribute(m.group(1)), Predicate.Comparison.BETWEEN, values);
+		} else if ((m = IN.matcher(pred)).matches()) {
+			List<String> values = new ArrayList<String>();
+			for (String value : split(m.group(2), COMMA)) {
+				Matcher v = VALUE.matcher(value.trim());
+				if (!v.matches()) {
+					throw new IllegalArgumentException("Expected a quoted value in " + pred + ": " + value);
+				}
+				values.add(v.group(1));
+			}
+			return new Predicate(attribute(m.group(1)), Predicate.Comparison.IN, values);
+		} else if ((m = COMPARE_VALUE.matcher(pred)).matches()) {
+			return new Predicate(attribute(m.group(1)), Predicate.Comparison.of(m.group(2)), m.group(3));
+		} else if ((m = COMPARE_ATTRIBUTE.matcher(pred)).matches()) {
+			return new Predicate(attribute(m.group(1)), Predicate.Comparison.of(m.group(2)), attribute(m.group(3)));
+		}
+		throw new IllegalArgumentException("Cannot parse predicate: " + pred);
+	}
+	
+	/**
+	 * Return true if the whole of a predicate is enclosed in parentheses.
+	 * @param pred
+	 * @return
+	 */
+	private static boolean enclosed(String pred) {
+		if (!pred.startsWith("(") || !pred.endsWith(")")) {
+			return false;
+		}
+		boolean quoted = false;
+		int depth = 0;
+		for (int i = 0; i < pred.length() - 1; i++) {
+			char c = pred.charAt(i);
+			if (c == '"') {
+				quoted = !quoted;
+			} else if (!quoted && c == '(') {
+				depth++;
+			} else if (!quoted && c == ')' && --depth == 0) {
+				return false; // the first parenthesis closes before the end
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Split a list at the separators that are outside double quotes
+	 * and parentheses.
+	 * @param list
+	 * @param separator
+	 * @return
+	 */
+	private static List<String> split(String list, Pattern separator) {
+		List<String> ret = new ArrayList<String>();
+		Matcher m = separator.matcher(list);
+		boolean quoted = false;
+		int depth = 0;
+		int start = 0;
+		for (int i = 0; i < list.length(); i++) {
+			char c = list.charAt(i);
+			if (c == '"') {
+				quoted = !quoted;
+			} else if (!quoted && c == '(') {
+				depth++;
+			} else if (!quoted && c == ')') {
+				depth--;
+			} else if (!quoted && depth == 0 && m.region(i, list.length()).lookingAt()) {
+				ret.add(list.substring(start, i));
+				start = m.end();
+				i = start - 1;
+			}
+		}
+		ret.add(list.substring(start));
+		return ret;
 	}
 	
 	/**
@@ -184,10 +286,25 @@ public class QueryParser {
 			ArrayList<Attribute> attributes = new ArrayList<Attribute>();
 
 			for (int i=0; i<attr.length; i++) {
-				attributes.add(new Attribute(attr[i].trim()));
+				attributes.add(attribute(attr[i].trim()));
 			}
 
 			return new Project(op, attributes);
 		}
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Return an attribute with the given name, carrying the index the
+	 * catalogue gave it (only the name and index of the attribute are
+	 * significant).
+	 * @param name
+	 * @return
+	 */
+	private Attribute attribute(String name) {
+		try {
+			return new Attribute(this.catalogue.getAttribute(name), 0);
+		} catch (DatabaseException e) {
+			return new Attribute(name); // reported when the plan is estimated
+		}
+	}
+}
@@ -1,29 +1,42 @@
 package sjdb;
 
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
 
 /**
  * The Relation class represents an unnamed relation. It consists of a 
  * number of attributes and a size (tuple count).
  * 
+ * Attributes are looked up by name in constant time: once a relation
+ * wider than a few attributes has been searched a few times, it keeps an
+ * index from each attribute to its position. (Most of the relations made
+ * by the Estimator are searched once or twice, and are not worth indexing.)
+ * 
  * @author nmg
  */
 public class Relation {
+	private static final int INDEXED_WIDTH = 8; // narrower relations are always searched in order
+	private static final int INDEXED_LOOKUPS = 4; // wider ones are indexed when searched this often
+	
 	private List<Attribute> attributes;
-	private int size;
+	private long size;
+	private volatile Map<Attribute, Integer> index; // position of each attribute, or null
+	private int lookups; // searches made without the index
 
 	/**
 	 * Create a new relation with the given tuple count
 	 */
-	protected Relation(int size) {
+	protected Relation(long size) {
 		this.attributes = new ArrayList<Attribute>();
 		this.size = size;
 	}
 	
 	/**
-	 * Return the list of attributes contained in this relation
+	 * Return the list of attributes contained in this relation; the list
+	 * must not be modified (use addAttribute instead)
 	 * 
 	 * @return the attributes
 	 */
@@ -41,7 +54,42 @@ public class Relation {
 	 * @return
 	 */
 	public Attribute getAttribute(Attribute attribute) {
-		return this.attributes.get(this.attributes.indexOf(attribute));
+		return this.attributes.get(indexOf(attribute));
+	}
+
+	/**
+	 * Return the position of an attribute in this relation, using another
+	 * attribute as a template (only the name of the attribute is significant).
+	 * 
+	 * @param attribute
+	 * @return the position of the first attribute with the same name, or -1
+	 */
+	public int indexOf(Attribute attribute) {
+		Map<Attribute, Integer> index = this.index;
+		if (index == null) {
+			if (this.attributes.size() <= INDEXED_WIDTH || ++this.lookups < INDEXED_LOOKUPS) {
+				return this.attributes.indexOf(attribute);
+			}
+			// built afresh and then published, so threads may share the relation
+			index = new HashMap<Attribute, Integer>(this.attributes.size() * 2);
+			for (int i = this.attributes.size() - 1; i >= 0; i--) {
+				index.put(this.attributes.get(i), i);
+			}
+			this.index = index;
+		}
+		Integer pos = index.get(attribute);
+		return pos == null ? -1 : pos;
+	}
+
+	/**
+	 * Return true if this relation contains an attribute with the same
+	 * name as the given one.
+	 * 
+	 * @param attribute
+	 * @return
+	 */
+	public boolean hasAttribute(Attribute attribute) {
+		return indexOf(attribute) >= 0;
 	}
 
 	/**
@@ -56,10 +104,13 @@ public class Relation {
 			// If the attribute has more distinct values than there are tuples
 			// in this relation, limit the distinct values to the number of
 			// tuples
-			this.attributes.add(new Attribute(attribute.getName(), this.size));
+			this.attributes.add(new Attribute(attribute, this.size));
 		} else {
 			this.attributes.add(attribute);	
 		}
+		if (this.index != null) {
+			this.index = null; // the positions of the attributes are unchanged, but this one is missing
+		}
 	}
 	
 	/**
@@ -67,7 +118,7 @@ public class Relation {
 	 * 
 	 * @return the tuples
 	 */
-	public int getTupleCount() {
+	public long getTupleCount() {
 		return size;
 	}
 	
@@ -0,0 +1,320 @@
+package sjdb;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * This class holds a uniform random sample of the tuples of a named
+ * relation (such as the reservoir kept by StatisticsCollector), against
+ * which predicates can be evaluated to estimate their selectivity. Unlike
+ * the per-attribute statistics, a sample keeps the values of each tuple
+ * together, so the selectivity of several predicates over correlated
+ * attributes (a city and its postcode, say) is measured rather than taken
+ * to be the product of their selectivities.
+ *
+ * A sample is serialised in the same form as the data read by
+ * StatisticsCollector: a line of attribute names, then one line per tuple,
+ * with the values separated by commas. If a sampled value contains a comma
+ * (as it may in data read with another delimiter), the first of '|', tab
+ * and ';' that appears in no value is used instead, and the line of names
+ * starts with it.
+ *
+ * Samples are immutable, apart from a cache of the counts already
+ * measured, and may be shared between threads.
+ */
+public class Sample {
+	private static final int CACHED = 4096; // counts cached before the cache is cleared
+	private static final AtomicLong SAMPLES = new AtomicLong();
+	private static final String DELIMITERS = ",|\t;"; // tried in turn by write; all but the first are written before the names
+
+	private long id = SAMPLES.incrementAndGet(); // tells samples apart in cache keys
+	private List<String> names;
+	private Map<String, Integer> columns;
+	private String[][] rows;
+	private Double[][] numbers; // the values that are numbers, parsed once
+	private ConcurrentHashMap<String, Long> cache = new ConcurrentHashMap<String, Long>();
+
+	/**
+	 * Create a new sample.
+	 * @param names Names of the attributes of the relation
+	 * @param rows Sampled tuples, each holding a value for every attribute
+	 */
+	public Sample(List<String> names, List<String[]> rows) {
+		this.names = Collections.unmodifiableList(new ArrayList<String>(names));
+		this.columns = new HashMap<String, Integer>(names.size() * 2);
+		for (int i = 0; i < names.size(); i++) {
+			this.columns.put(names.get(i), i);
+		}
+		this.rows = new String[rows.size()][];
+		this.numbers = new Double[rows.size()][];
+		for (int r = 0; r < this.rows.length; r++) {
+			String[] row = rows.get(r);
+			if (row.length != names.size()) {
+				throw new IllegalArgumentException("Expected " + names.size() + " values in sampled tuple " + r);
+			}
+			this.rows[r] = row.clone();
+			this.numbers[r] = new Double[row.length];
+			for (int i = 0; i < row.length; i++) {
+				this.numbers[r][i] = Synopsis.number(row[i]);
+			}
+		}
+	}
+
+	/**
+	 * @return the names of the attributes of the sampled relation
+	 */
+	public List<String> getNames() {
+		return this.names;
+	}
+
+	/**
+	 * @return the number of sampled tuples
+	 */
+	public int size() {
+		return this.rows.length;
+	}
+
+	/**
+	 * Return true if the sample holds the values of an attribute
+	 * @param attr Attribute
+	 */
+	public boolean contains(Attribute attr) {
+		return this.columns.containsKey(attr.getName());
+	}
+
+	/**
+	 * Return true if every attribute used by the predicates is in the sample
+	 * @param predicates Predicates
+	 */
+	public boolean covers(List<Predicate> predicates) {
+		for (Predicate pred : predicates) {
+			for (Attribute attr : pred.getAttributes()) {
+				if (!contains(attr)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Return the number of sampled tuples that satisfy every one of the
+	 * predicates, which must only use attributes in the sample
+	 * @param predicates Conjunction of predicates
+	 */
+	public long count(List<Predicate> predicates) {
+		return cached(key(predicates), () -> {
+			long n = 0;
+			for (int r = 0; r < this.rows.length; r++) {
+				if (matches(predicates, r)) n++;
+			}
+			return n;
+		});
+	}
+
+	/**
+	 * Return the number of pairs of a tuple of this sample that satisfies
+	 * the predicates on the left and a tuple of the other sample that
+	 * satisfies those on the right, with equal values of the two given
+	 * attributes
+	 * @param left Predicates on this sample
+	 * @param attr Attribute of this sample
+	 * @param other Other sample
+	 * @param right Predicates on the other sample
+	 * @param otherAttr Attribute of the other sample
+	 */
+	public long count(List<Predicate> left, Attribute attr, Sample other, List<Predicate> right, Attribute otherAttr) {
+		String key = key(left) + "|" + attr + "=" + other.id + ":" + otherAttr + "|" + key(right);
+		return cached(key, () -> {
+			int column = this.columns.get(attr.getName());
+			int otherColumn = other.columns.get(otherAttr.getName());
+			Map<Object, Long> counts = new HashMap<Object, Long>();
+			for (int r = 0; r < this.rows.length; r++) {
+				if (matches(left, r)) counts.merge(valueOf(r, column), 1L, Long::sum);
+			}
+			long n = 0;
+			for (int r = 0; r < other.rows.length; r++) {
+				if (other.matches(right, r)) {
+					Long c = counts.get(other.valueOf(r, otherColumn));
+					if (c != null) n += c;
+				}
+			}
+			return n;
+		});
+	}
+
+	/**
+	 * Write the sample in the form read by read()
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(Writer out) throws IOException {
+		String delimiter = String.valueOf(delimiter());
+		if (!delimiter.equals(",")) {
+			out.write(delimiter);
+		}
+		out.write(String.join(delimiter, this.names));
+		out.write('\n');
+		for (String[] row : this.rows) {
+			out.write(String.join(delimiter, row));
+			out.write('\n');
+		}
+		out.flush();
+	}
+
+	/**
+	 * Read a sample written by write()
+	 * @param in
+	 * @return Sample
+	 * @throws IOException
+	 */
+	public static Sample read(Reader in) throws IOException {
+		BufferedReader read = new BufferedReader(in);
+		String header = read.readLine();
+		if (header == null) {
+			throw new IOException("No attribute names in sample");
+		}
+		String delimiter = ",";
+		if (!header.isEmpty() && DELIMITERS.indexOf(header.charAt(0)) > 0) {
+			delimiter = header.substring(0, 1);
+			header = header.substring(1);
+		}
+		String pattern = Pattern.quote(delimiter);
+		List<String[]> rows = new ArrayList<String[]>();
+		for (String line = read.readLine(); line != null; line = read.readLine()) {
+			rows.add(line.split(pattern, -1));
+		}
+		List<String> names = new ArrayList<String>();
+		Collections.addAll(names, header.split(pattern, -1));
+		return new Sample(names, rows);
+	}
+
+	/**
+	 * Return the first of the delimiters that appears in no name or value
+	 */
+	private char delimiter() throws IOException {
+		for (int d = 0; d < DELIMITERS.length(); d++) {
+			char delimiter = DELIMITERS.charAt(d);
+			boolean free = true;
+			for (String name : this.names) {
+				free &= name.indexOf(delimiter) < 0;
+			}
+			for (int r = 0; r < this.rows.length && free; r++) {
+				for (String value : this.rows[r]) {
+					free &= value.indexOf(delimiter) < 0;
+				}
+			}
+			if (free) {
+				return delimiter;
+			}
+		}
+		throw new IOException("Every delimiter appears in the sampled values");
+	}
+
+	/**
+	 * Return the value of a sampled tuple as a key that is equal for equal
+	 * values (numbers are compared as numbers, as in Synopsis.compare)
+	 */
+	private Object valueOf(int row, int column) {
+		Double x = this.numbers[row][column];
+		return x != null ? (Object) (x == 0 ? 0.0 : x) : this.rows[row][column];
+	}
+
+	/**
+	 * Return true if a sampled tuple satisfies every one of the predicates
+	 */
+	private boolean matches(List<Predicate> predicates, int row) {
+		for (Predicate pred : predicates) {
+			if (!matches(pred, row)) return false;
+		}
+		return true;
+	}
+
+	private boolean matches(Predicate pred, int row) {
+		if (pred.isDisjunction()) {
+			for (Predicate disjunct : pred.getDisjuncts()) {
+				if (matches(disjunct, row)) return true;
+			}
+			return false;
+		}
+		int column = this.columns.get(pred.getLeftAttribute().getName());
+		String value = this.rows[row][column];
+		Double number = this.numbers[row][column];
+		switch (pred.getComparison()) {
+		case BETWEEN:
+			return compare(value, number, pred.getValues().get(0)) >= 0
+					&& compare(value, number, pred.getValues().get(1)) <= 0;
+		case IN:
+			for (String v : pred.getValues()) {
+				if (compare(value, number, v) == 0) return true;
+			}
+			return false;
+		default:
+			break;
+		}
+		int c;
+		if (pred.getRightAttribute() != null) {
+			int other = this.columns.get(pred.getRightAttribute().getName());
+			c = Synopsis.compare(value, number, this.rows[row][other], this.numbers[row][other]);
+		} else {
+			c = compare(value, number, pred.getRightValue());
+		}
+		switch (pred.getComparison()) {
+		case EQ:
+			return c == 0;
+		case NE:
+			return c != 0;
+		case LT:
+			return c < 0;
+		case LE:
+			return c <= 0;
+		case GT:
+			return c > 0;
+		default: // GE
+			return c >= 0;
+		}
+	}
+
+	private static int compare(String value, Double number, String literal) {
+		return Synopsis.compare(value, number, literal, Synopsis.number(literal));
+	}
+
+	/**
+	 * Return a key for a conjunction of predicates that does not depend on
+	 * their order
+	 */
+	private static String key(List<Predicate> predicates) {
+		List<String> ret = new ArrayList<String>(predicates.size());
+		for (Predicate pred : predicates) {
+			ret.add(pred.toString());
+		}
+		Collections.sort(ret);
+		return String.join(" AND ", ret);
+	}
+
+	/**
+	 * Return the count cached under a key, measuring it if there is none
+	 */
+	private long cached(String key, LongSupplier measure) {
+		Long ret = this.cache.get(key);
+		if (ret == null) {
+			ret = measure.getAsLong();
+			if (this.cache.size() >= CACHED) {
+				this.cache.clear();
+			}
+			this.cache.put(key, ret);
+		}
+		return ret;
+	}
+}
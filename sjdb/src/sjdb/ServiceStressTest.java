@@ -0,0 +1,176 @@
+package sjdb;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Flood a PlanningService with more requests than it admits, some of them
+ * with no time at all, then submit requests and cancel them at once, as
+ * fast as they are admitted. Check that
+ * - no more requests run at once than the service admits, even though
+ *   cancelled searches keep running until they next check for an interrupt,
+ * - the rejected, completed, incomplete and failed counts add up, and
+ * - every request that was given time gets the same plan and cost as a
+ *   single-threaded run.
+ *
+ * Usage: ServiceStressTest [requests [maxRequests]]
+ */
+public class ServiceStressTest {
+
+	public static void main(String[] args) throws Exception {
+		int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int maxRequests = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+		Catalogue catalogue = new Catalogue();
+		new CatalogueParser("data/cat.txt", catalogue).parse();
+
+		List<String> queries = new ArrayList<String>();
+		for (int i = 1; i <= 5; i++) {
+			queries.add(read(new File("data/q" + i + ".txt")));
+		}
+
+		// expected plans, from a fresh optimiser per query
+		List<String> expected = new ArrayList<String>();
+		for (String query : queries) {
+			Operator plan = new Optimiser(catalogue).optimise(new QueryParser(catalogue, new StringReader(query)).parse());
+			expected.add(plan + " cost=" + new Estimator().getCost(plan));
+		}
+
+		CountingOptimiser optimiser = new CountingOptimiser(catalogue);
+		PlanningService service = new PlanningService(catalogue, optimiser, maxRequests);
+
+		List<Future<OptimiserResult>> futures = new ArrayList<Future<OptimiserResult>>();
+		List<Integer> submitted = new ArrayList<Integer>();
+		int attempts = 0;
+		int rejected = 0;
+		int cancelled = 0;
+		int untimed = 0;
+		for (int i = 0; i < requests; i++) {
+			int q = i % queries.size();
+			boolean timed = i % 13 != 0;
+			attempts++;
+			try {
+				futures.add(service.submit(queries.get(q), timed ? 1 : 0, TimeUnit.DAYS));
+				submitted.add(timed ? q : -1);
+				if (!timed) untimed++;
+			} catch (RejectedExecutionException e) {
+				rejected++;
+			}
+		}
+
+		// a client that cancels its requests once they have started must not
+		// get more running than are admitted
+		for (int round = 0; round < requests / 100; round++) {
+			List<Future<OptimiserResult>> batch = new ArrayList<Future<OptimiserResult>>();
+			for (int i = 0; i < 2 * maxRequests; i++) {
+				attempts++;
+				try {
+					batch.add(service.submit(queries.get(i % queries.size()), 1, TimeUnit.DAYS));
+				} catch (RejectedExecutionException e) {
+					rejected++;
+				}
+			}
+			Thread.sleep(1);
+			for (Future<OptimiserResult> future : batch) {
+				future.cancel(true);
+				cancelled++;
+			}
+		}
+
+		int failures = 0;
+		for (int i = 0; i < futures.size(); i++) {
+			OptimiserResult result = futures.get(i).get();
+			int q = submitted.get(i);
+			String actual = result.getPlan() + " cost=" + result.getCost();
+			if (q >= 0 && !actual.equals(expected.get(q))) {
+				failures++;
+				System.err.println("q" + (q + 1) + ": expected " + expected.get(q) + " but got " + actual);
+			}
+		}
+		service.close();
+		if (!service.awaitTermination(1, TimeUnit.MINUTES)) {
+			failures++;
+			System.err.println("requests still running after the service was closed");
+		}
+
+		PlanningService.Stats stats = service.getStats();
+		failures += check(stats.getSubmitted() == attempts, "submitted " + stats.getSubmitted() + ", expected " + attempts);
+		failures += check(stats.getRejected() == rejected, "rejected " + stats.getRejected() + ", expected " + rejected);
+		failures += check(rejected > 0, "no request was rejected; the service was not flooded");
+		failures += check(stats.getFailed() == 0, stats.getFailed() + " requests failed");
+		failures += check(stats.getCompleted() >= futures.size() && stats.getCompleted() <= futures.size() + cancelled,
+				"completed " + stats.getCompleted() + ", expected " + futures.size() + " to " + (futures.size() + cancelled));
+		failures += check(stats.getIncomplete() >= untimed, "incomplete " + stats.getIncomplete() + ", expected at least " + untimed);
+		failures += check(optimiser.maxRunning.get() <= maxRequests,
+				optimiser.maxRunning.get() + " requests ran at once, but only " + maxRequests + " are admitted");
+
+		System.out.println(requests + " requests (" + untimed + " with no time) and " + cancelled + " cancelled, "
+				+ (service.usesVirtualThreads() ? "virtual threads" : "thread pool") + ", at most "
+				+ optimiser.maxRunning.get() + " running: " + failures + " failures");
+		System.out.println(stats);
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	private static int check(boolean condition, String message) {
+		if (!condition) {
+			System.err.println(message);
+		}
+		return condition ? 0 : 1;
+	}
+
+	/**
+	 * An optimiser that counts the searches running at once. Each search
+	 * first spins for a while without checking for an interrupt, as a
+	 * search does between steps, so cancelled requests keep running.
+	 */
+	private static class CountingOptimiser extends Optimiser {
+		private AtomicInteger running = new AtomicInteger();
+		private AtomicInteger maxRunning = new AtomicInteger();
+
+		CountingOptimiser(Catalogue catalogue) {
+			super(catalogue);
+		}
+
+		/* (non-Javadoc)
+		 * @see sjdb.Optimiser#optimise(sjdb.Operator, long, java.util.concurrent.TimeUnit)
+		 */
+		@Override
+		public OptimiserResult optimise(Operator plan, long budget, TimeUnit unit) {
+			int now = this.running.incrementAndGet();
+			for (int max = this.maxRunning.get(); now > max && !this.maxRunning.compareAndSet(max, now); ) {
+				max = this.maxRunning.get();
+			}
+			try {
+				for (long end = System.nanoTime() + 2000000; System.nanoTime() < end; ) {
+					// busy, and deaf to interrupts
+				}
+				return super.optimise(plan, budget, unit);
+			} finally {
+				this.running.decrementAndGet();
+			}
+		}
+	}
+
+	private static String read(File file) throws Exception {
+		StringBuilder text = new StringBuilder();
+		FileReader reader = new FileReader(file);
+		try {
+			char[] buf = new char[1024];
+			for (int n = reader.read(buf); n > 0; n = reader.read(buf)) {
+				text.append(buf, 0, n);
+			}
+		} finally {
+			reader.close();
+		}
+		return text.toString();
+	}
+}
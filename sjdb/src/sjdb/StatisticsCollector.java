@@ -0,0 +1,493 @@
+package sjdb;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * This class computes the statistics of named relations from their data,
+ * and records them in a Catalogue, in the manner of the ANALYZE command of
+ * a database system.
+ *
+ * The data of a relation is read as text: the first line holds the names
+ * of its attributes, and every other line one tuple, with the values of
+ * the attributes separated by commas (or another delimiter). There is no
+ * quoting, so values cannot contain the delimiter.
+ *
+ * The data is read once, in memory that does not depend on its size:
+ *
+ * - the tuples are counted exactly;
+ * - the distinct values of each attribute are counted by a HyperLogLog
+ *   sketch (exactly, if every tuple fits in the sample);
+ * - the least and greatest value of each attribute are kept exactly;
+ * - a uniform sample of the tuples is kept by reservoir sampling, from
+ *   which the most common values and an equi-depth histogram of the other
+ *   values of each attribute are built (see Synopsis). The ends of the
+ *   histogram are the exact least and greatest values. The sample itself
+ *   is recorded as well (see Catalogue.setSample()).
+ *
+ * If asked to, the collector also records the statistics of correlated
+ * pairs of attributes (see AttributeGroup and Dependency): the distinct
+ * pairs of values are counted by a HyperLogLog sketch of each pair, and
+ * dependencies are found in the sample.
+ *
+ * A value is a most common value if it occurs at least twice in the sample
+ * and more often than the average value of the sample by a quarter, or if
+ * the sample seems to hold every value of the attribute (each occurs at
+ * least twice, and there are no more than the MCV list can hold). Values
+ * that cannot be written in the serialised catalogue (those containing a
+ * colon, comma, semicolon or double quote) are left out of the MCV list,
+ * and an attribute whose histogram would need one as a bound gets none.
+ *
+ * Usage: StatisticsCollector catalogue directory [output]
+ *
+ * reads the catalogue (if it exists), analyses every relation with a data
+ * file named <relation name>.csv in the directory, replacing the entries
+ * of those relations, and writes the catalogue back (or to the output),
+ * with the samples alongside it (see CatalogueWriter.writeSamples()).
+ * The sample size may be set with -Dsjdb.sample=<tuples>, and the
+ * statistics of pairs of attributes gathered with -Dsjdb.correlations=true.
+ */
+public class StatisticsCollector {
+	private static final int CORRELATED_WIDTH = 16; // wider relations get no statistics of pairs of attributes
+	private static final double DEPENDENCY_DEGREE = 0.9; // weaker dependencies are not recorded
+
+	private Catalogue catalogue;
+	private int sampleSize = 30000;
+	private int buckets = 100;
+	private int commonValues = 100;
+	private int precision = 12;
+	private char delimiter = ',';
+	private long seed = 1;
+	private boolean correlations = false;
+
+	/**
+	 * Create a new collector.
+	 * @param catalogue Catalogue in which to record the statistics
+	 */
+	public StatisticsCollector(Catalogue catalogue) {
+		this.catalogue = catalogue;
+	}
+
+	/**
+	 * Set the number of tuples sampled from each relation (30000 by default)
+	 */
+	public void setSampleSize(int sampleSize) {
+		if (sampleSize < 1) {
+			throw new IllegalArgumentException("Sample size must be positive: " + sampleSize);
+		}
+		this.sampleSize = sampleSize;
+	}
+
+	/**
+	 * Set the number of histogram buckets of each attribute (100 by default;
+	 * 0 for no histograms)
+	 */
+	public void setBuckets(int buckets) {
+		this.buckets = buckets;
+	}
+
+	/**
+	 * Set the greatest number of most common values kept for each
+	 * attribute (100 by default; 0 for no MCV lists)
+	 */
+	public void setCommonValues(int commonValues) {
+		this.commonValues = commonValues;
+	}
+
+	/**
+	 * Set the precision of the HyperLogLog sketches (12 by default)
+	 */
+	public void setPrecision(int precision) {
+		new HyperLogLog(precision); // checks the range
+		this.precision = precision;
+	}
+
+	/**
+	 * Set the character separating the values of a tuple (a comma by default)
+	 */
+	public void setDelimiter(char delimiter) {
+		this.delimiter = delimiter;
+	}
+
+	/**
+	 * Set the seed of the random number generator used for sampling (1 by
+	 * default), so that the same data always gives the same statistics
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Gather statistics of the pairs of attributes of each relation, if it
+	 * has no more than 16 attributes (false by default, as this takes time
+	 * in proportion to the square of the number of attributes)
+	 */
+	public void setCorrelations(boolean correlations) {
+		this.correlations = correlations;
+	}
+
+	/**
+	 * Analyse the data file of a relation, named after the relation with
+	 * any extension removed
+	 * @param file Data file
+	 * @return Named relation created in the catalogue
+	 */
+	public NamedRelation analyse(File file) throws IOException {
+		String name = file.getName();
+		if (name.lastIndexOf('.') > 0) {
+			name = name.substring(0, name.lastIndexOf('.'));
+		}
+		Reader in = new FileReader(file);
+		try {
+			return analyse(name, in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Analyse the data of a relation, and (re)create the relation and its
+	 * attributes in the catalogue with the statistics found, recording the
+	 * sample of its tuples
+	 * @param relation Name of the relation
+	 * @param data Data of the relation
+	 * @return Named relation created in the catalogue
+	 */
+	public NamedRelation analyse(String relation, Reader data) throws IOException {
+		BufferedReader in = new BufferedReader(data, 1 << 16);
+		String header = in.readLine();
+		if (header == null) {
+			throw new IOException("No attribute names in the data of " + relation);
+		}
+		String[] names = split(header);
+		int width = names.length;
+
+		Column[] columns = new Column[width];
+		for (int i = 0; i < width; i++) {
+			columns[i] = new Column(this.precision);
+		}
+		HyperLogLog[][] pairs = null; // the combined values of attributes i<j
+		if (this.correlations && width <= CORRELATED_WIDTH) {
+			pairs = new HyperLogLog[width][width];
+			for (int i = 0; i < width; i++) {
+				for (int j = i + 1; j < width; j++) {
+					pairs[i][j] = new HyperLogLog(this.precision);
+				}
+			}
+		}
+		List<String[]> sample = new ArrayList<String[]>();
+		Random random = new Random(this.seed);
+		long tuples = 0;
+
+		for (String line = in.readLine(); line != null; line = in.readLine()) {
+			String[] values = split(line);
+			if (values.length != width) {
+				throw new IOException("Expected " + width + " values in line " + (tuples + 2) + " of " + relation + ": " + line);
+			}
+			for (int i = 0; i < width; i++) {
+				columns[i].add(values[i]);
+			}
+			if (pairs != null) {
+				for (int i = 0; i < width; i++) {
+					for (int j = i + 1; j < width; j++) {
+						pairs[i][j].add(values[i] + '\0' + values[j]);
+					}
+				}
+			}
+			// reservoir sampling: after n tuples, each is in the sample with
+			// probability sampleSize/n
+			if (sample.size() < this.sampleSize) {
+				sample.add(values);
+			} else {
+				long slot = (long) (random.nextDouble() * (tuples + 1));
+				if (slot < this.sampleSize) {
+					sample.set((int) slot, values);
+				}
+			}
+			tuples++;
+		}
+
+		NamedRelation ret = this.catalogue.createRelation(relation, tuples);
+		for (int i = 0; i < width; i++) {
+			List<String> values = new ArrayList<String>(sample.size());
+			for (String[] tuple : sample) {
+				values.add(tuple[i]);
+			}
+			Map<String, Integer> counts = count(values);
+			long distinct = sample.size() == tuples ? counts.size()
+					: Math.max(counts.size(), Math.min(tuples, columns[i].sketch.estimate()));
+			this.catalogue.createAttribute(relation, names[i], distinct, synopsis(columns[i], values, counts, distinct));
+		}
+		if (pairs != null) {
+			correlate(ret, names, sample, tuples, pairs);
+		}
+		this.catalogue.setSample(relation, new Sample(Arrays.asList(names), sample));
+		return ret;
+	}
+
+	/**
+	 * Record the statistics of the pairs of attributes of a relation that
+	 * are correlated: a functional dependency between two attributes if it
+	 * holds in most of the sampled tuples whose value of the determinant is
+	 * not unique in the sample, and otherwise the number of distinct pairs
+	 * of values, if it is well below the product of their value counts and
+	 * well above the value count of each
+	 */
+	private void correlate(NamedRelation relation, String[] names, List<String[]> sample, long tuples, HyperLogLog[][] pairs) {
+		int width = names.length;
+		long[] values = new long[width];
+		for (int i = 0; i < width; i++) {
+			values[i] = relation.getAttributes().get(i).getValueCount();
+		}
+		try {
+			for (int i = 0; i < width; i++) {
+				for (int j = i + 1; j < width; j++) {
+					double forward = degree(sample, i, j);
+					double backward = degree(sample, j, i);
+					if (forward >= DEPENDENCY_DEGREE && values[j] > 1) {
+						this.catalogue.createDependency(relation.toString(), names[i], names[j], forward);
+					}
+					if (backward >= DEPENDENCY_DEGREE && values[i] > 1) {
+						this.catalogue.createDependency(relation.toString(), names[j], names[i], backward);
+					}
+					if (forward >= DEPENDENCY_DEGREE || backward >= DEPENDENCY_DEGREE) {
+						continue;
+					}
+					Set<String> seen = new HashSet<String>();
+					for (String[] tuple : sample) {
+						seen.add(tuple[i] + '\0' + tuple[j]);
+					}
+					long joint = sample.size() == tuples ? seen.size()
+							: Math.max(seen.size(), Math.min(tuples, pairs[i][j].estimate()));
+					// if the pairs are barely more than the values of one attribute, that one is (nearly) a key
+					if (joint > 1.1 * Math.max(values[i], values[j]) && joint < (double) values[i] * values[j] / 2) {
+						this.catalogue.createGroup(relation.toString(), Arrays.asList(names[i], names[j]), joint);
+					}
+				}
+			}
+		} catch (DatabaseException e) {
+			throw new IllegalStateException(e); // the attributes have just been created
+		}
+	}
+
+	/**
+	 * Return the fraction of the sampled tuples whose value of attribute i
+	 * occurs more than once in the sample and determines their value of
+	 * attribute j, or 0 if no value of i occurs more than once
+	 */
+	private static double degree(List<String[]> sample, int i, int j) {
+		Map<String, String> first = new HashMap<String, String>(); // value of j in the first tuple with each value of i
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		Set<String> mixed = new HashSet<String>(); // values of i with several values of j
+		for (String[] tuple : sample) {
+			String previous = first.putIfAbsent(tuple[i], tuple[j]);
+			if (previous != null && !previous.equals(tuple[j])) {
+				mixed.add(tuple[i]);
+			}
+			counts.merge(tuple[i], 1, Integer::sum);
+		}
+		long repeated = 0;
+		long determined = 0;
+		for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+			if (entry.getValue() > 1) {
+				repeated += entry.getValue();
+				if (!mixed.contains(entry.getKey())) {
+					determined += entry.getValue();
+				}
+			}
+		}
+		return repeated == 0 ? 0 : (double) determined / repeated;
+	}
+
+	/**
+	 * Build the synopsis of an attribute from the values of the sample
+	 */
+	private Synopsis synopsis(Column column, List<String> values, Map<String, Integer> counts, long distinct) {
+		if (values.isEmpty()) {
+			return null;
+		}
+
+		// the most common values, most common first; if every value of the
+		// sample occurs more than once and they all fit, the sample most
+		// likely holds every value, and all of them are listed
+		boolean all = counts.size() <= this.commonValues && !counts.containsValue(1);
+		List<String> common = new ArrayList<String>();
+		double average = (double) values.size() / counts.size();
+		for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+			if ((all || (entry.getValue() >= 2 && entry.getValue() > 1.25 * average)) && representable(entry.getKey())) {
+				common.add(entry.getKey());
+			}
+		}
+		Collections.sort(common, (a, b) -> counts.get(a).equals(counts.get(b)) ? Synopsis.compare(a, b) : counts.get(b) - counts.get(a));
+		common = common.subList(0, Math.min(common.size(), this.commonValues));
+		String[] mcv = common.toArray(new String[common.size()]);
+		double[] frequencies = new double[mcv.length];
+		for (int i = 0; i < mcv.length; i++) {
+			frequencies[i] = (double) counts.get(mcv[i]) / values.size();
+		}
+
+		// an equi-depth histogram of the other values
+		Set<String> commonSet = new HashSet<String>(common);
+		List<String> rest = new ArrayList<String>(values.size());
+		for (String value : values) {
+			if (!commonSet.contains(value)) {
+				rest.add(value);
+			}
+		}
+		String[] bounds = new String[0];
+		long[] bucketValues = new long[0];
+		int k = Math.min(this.buckets, new HashSet<String>(rest).size());
+		if (k > 0) {
+			Collections.sort(rest, Synopsis::compare);
+			bounds = new String[k + 1];
+			bucketValues = new long[k];
+			bounds[0] = column.min;
+			long restDistinct = 0;
+			int from = 0;
+			for (int b = 0; b < k; b++) {
+				int to = (int) Math.ceil((double) (b + 1) * rest.size() / k); // bucket holds rest[from..to)
+				bounds[b + 1] = b == k - 1 ? column.max : rest.get(to - 1);
+				for (int j = from; j < to; j++) {
+					if (j == 0 || !rest.get(j).equals(rest.get(j - 1))) bucketValues[b]++;
+				}
+				restDistinct += bucketValues[b];
+				from = to;
+			}
+			// scale the distinct values seen in the sample up to the estimate
+			double scale = Math.max(1, (double) (distinct - mcv.length) / Math.max(1, restDistinct));
+			for (int b = 0; b < k; b++) {
+				bucketValues[b] = Math.max(1, Math.round(bucketValues[b] * scale));
+			}
+			for (String bound : bounds) {
+				if (!representable(bound)) {
+					bounds = new String[0];
+					bucketValues = new long[0];
+					break;
+				}
+			}
+		}
+		if (mcv.length == 0 && bucketValues.length == 0) {
+			return null;
+		}
+		return new Synopsis(mcv, frequencies, bounds, bucketValues);
+	}
+
+	/**
+	 * Count the occurrences of each value
+	 */
+	private static Map<String, Integer> count(List<String> values) {
+		Map<String, Integer> ret = new HashMap<String, Integer>();
+		for (String value : values) {
+			Integer n = ret.get(value);
+			ret.put(value, n == null ? 1 : n + 1);
+		}
+		return ret;
+	}
+
+	/**
+	 * Return true if a value can be written in the serialised catalogue
+	 */
+	private static boolean representable(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			if (":,;\"".indexOf(value.charAt(i)) >= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Split a line at the delimiter; String.split would drop trailing
+	 * empty values and compile a pattern for most delimiters
+	 */
+	private String[] split(String line) {
+		List<String> ret = new ArrayList<String>();
+		int start = 0;
+		for (int i = line.indexOf(this.delimiter); i >= 0; i = line.indexOf(this.delimiter, start)) {
+			ret.add(line.substring(start, i));
+			start = i + 1;
+		}
+		ret.add(line.substring(start));
+		return ret.toArray(new String[ret.size()]);
+	}
+
+	/**
+	 * The statistics of one attribute gathered while the data is read
+	 */
+	private static class Column {
+		private HyperLogLog sketch;
+		private String min;
+		private String max;
+		private Double minNumber; // min and max as numbers, so each is parsed once
+		private Double maxNumber;
+
+		Column(int precision) {
+			this.sketch = new HyperLogLog(precision);
+		}
+
+		void add(String value) {
+			this.sketch.add(value);
+			Double number = Synopsis.number(value);
+			if (this.min == null) {
+				this.min = this.max = value;
+				this.minNumber = this.maxNumber = number;
+			} else if (Synopsis.compare(value, number, this.min, this.minNumber) < 0) {
+				this.min = value;
+				this.minNumber = number;
+			} else if (Synopsis.compare(value, number, this.max, this.maxNumber) > 0) {
+				this.max = value;
+				this.maxNumber = number;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: StatisticsCollector catalogue directory [output]");
+			System.exit(1);
+		}
+		Catalogue catalogue = new Catalogue();
+		File catFile = new File(args[0]);
+		if (catFile.exists()) {
+			new CatalogueParser(args[0], catalogue).parse();
+		}
+
+		StatisticsCollector collector = new StatisticsCollector(catalogue);
+		collector.setSampleSize(Integer.getInteger("sjdb.sample", collector.sampleSize));
+		collector.setCorrelations(Boolean.getBoolean("sjdb.correlations"));
+		File[] files = new File(args[1]).listFiles();
+		if (files == null) {
+			throw new IOException("Cannot list data directory " + args[1]);
+		}
+		Arrays.sort(files);
+		for (File file : files) {
+			if (file.getName().endsWith(".csv")) {
+				NamedRelation relation = collector.analyse(file);
+				System.out.println(relation + ": " + relation.getTupleCount() + " tuples");
+			}
+		}
+
+		String output = args.length > 2 ? args[2] : args[0];
+		Writer out = new FileWriter(output);
+		try {
+			new CatalogueWriter(out).write(catalogue);
+		} finally {
+			out.close();
+		}
+		CatalogueWriter.writeSamples(catalogue, CatalogueParser.samplesOf(output));
+	}
+}
@@ -0,0 +1,103 @@
+package sjdb;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Optimise the same queries from many threads at once, with a single shared
+ * Optimiser (and plan cache), and check that every thread gets the same plan
+ * and cost as a single-threaded run.
+ *
+ * Usage: StressTest [threads [rounds]]
+ */
+public class StressTest {
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+		final Catalogue catalogue = new Catalogue();
+		new CatalogueParser("data/cat.txt", catalogue).parse();
+
+		final List<String> queries = new ArrayList<String>();
+		for (int i = 1; i <= 5; i++) {
+			queries.add(read(new File("data/q" + i + ".txt")));
+		}
+
+		// expected plans, from a fresh optimiser per query
+		final List<String> expected = new ArrayList<String>();
+		for (String query : queries) {
+			Operator plan = new Optimiser(catalogue).optimise(parse(catalogue, query));
+			expected.add(plan + " cost=" + new Estimator().getCost(plan));
+		}
+
+		final Optimiser optimiser = new Optimiser(catalogue);
+		final PlanCache cache = new PlanCache(catalogue, 2);
+		final Optimiser cached = new Optimiser(catalogue);
+		cached.setPlanCache(cache);
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicInteger failures = new AtomicInteger();
+		final int count = rounds;
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			final int offset = t;
+			Thread worker = new Thread() {
+				public void run() {
+					try {
+						start.await();
+						for (int r = 0; r < count; r++) {
+							int q = (r + offset) % queries.size();
+							Optimiser opt = r % 2 == 0 ? optimiser : cached;
+							OptimiserResult result = opt.optimise(parse(catalogue, queries.get(q)), 1, TimeUnit.DAYS);
+							String actual = result.getPlan() + " cost=" + result.getCost();
+							if (!actual.equals(expected.get(q))) {
+								failures.incrementAndGet();
+								System.err.println("q" + (q + 1) + ": expected " + expected.get(q) + " but got " + actual);
+							}
+						}
+					} catch (Exception e) {
+						failures.incrementAndGet();
+						e.printStackTrace();
+					}
+				}
+			};
+			worker.start();
+			workers.add(worker);
+		}
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+
+		System.out.println(threads + " threads x " + rounds + " rounds: " + failures.get() + " failures, "
+				+ cache.getHits() + " cache hits, " + cache.getMisses() + " cache misses");
+		if (failures.get() > 0) {
+			System.exit(1);
+		}
+	}
+
+	private static Operator parse(Catalogue catalogue, String query) throws Exception {
+		return new QueryParser(catalogue, new StringReader(query)).parse();
+	}
+
+	private static String read(File file) throws Exception {
+		StringBuilder text = new StringBuilder();
+		FileReader reader = new FileReader(file);
+		try {
+			char[] buf = new char[1024];
+			for (int n = reader.read(buf); n > 0; n = reader.read(buf)) {
+				text.append(buf, 0, n);
+			}
+		} finally {
+			reader.close();
+		}
+		return text.toString();
+	}
+}
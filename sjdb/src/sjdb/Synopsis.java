@@ -0,0 +1,322 @@
+package sjdb;
+
+import java.util.HashMap;
+
+/**
+ * This class describes the distribution of the values of an attribute,
+ * beyond its number of distinct values, so that the Estimator can tell
+ * common values from rare ones. It holds:
+ *
+ * - a list of the most common values (MCVs), each with the fraction of
+ *   the tuples of the relation that take it, and
+ * - an equi-depth histogram over the remaining values: the range of those
+ *   values is split into buckets that each hold the same fraction of the
+ *   remaining tuples, and each bucket records its upper bound and the
+ *   number of distinct values that fall in it.
+ *
+ * Either part may be empty. A value that is not in the MCV list is taken
+ * to be as frequent as the other values of its bucket, so a bucket with
+ * few distinct values marks those values as frequent; a value outside the
+ * histogram, or an attribute without one, is taken to be as frequent as
+ * the average value not in the MCV list. For ranges, the fraction of a
+ * bucket that lies in the range is interpolated between its bounds when
+ * they are numbers (and taken to be half otherwise); a histogram with a
+ * single bucket thus gives estimates based on the minimum and maximum.
+ *
+ * Values are compared as numbers when both parse as numbers, and as
+ * strings otherwise (numbers sorting first). Synopses are immutable, so
+ * they may be shared between the copies of an attribute.
+ */
+public class Synopsis {
+	private String[] values;
+	private double[] frequencies;
+	private HashMap<String, Double> common;
+	private double commonFraction;
+	private String[] bounds;
+	private long[] distinct;
+
+	/**
+	 * Create a new synopsis.
+	 * @param values Most common values
+	 * @param frequencies Fraction of the tuples taking each common value
+	 * @param bounds Bounds of the histogram buckets: the lowest value, then
+	 * the highest value in each bucket (empty if there is no histogram)
+	 * @param distinct Number of distinct values in each bucket
+	 */
+	public Synopsis(String[] values, double[] frequencies, String[] bounds, long[] distinct) {
+		if (values.length != frequencies.length) {
+			throw new IllegalArgumentException("Expected a frequency for each of " + values.length + " common values");
+		}
+		if (bounds.length != (distinct.length == 0 ? 0 : distinct.length + 1)) {
+			throw new IllegalArgumentException("Expected " + (distinct.length + 1) + " bounds for " + distinct.length + " buckets");
+		}
+		this.values = values.clone();
+		this.frequencies = frequencies.clone();
+		this.common = new HashMap<String, Double>(values.length * 2);
+		for (int i = 0; i < values.length; i++) {
+			this.common.put(values[i], frequencies[i]);
+			this.commonFraction += frequencies[i];
+		}
+		this.commonFraction = Math.min(1, this.commonFraction);
+		this.bounds = bounds.clone();
+		this.distinct = distinct.clone();
+	}
+
+	/**
+	 * @return the number of values in the MCV list
+	 */
+	public int getCommonCount() {
+		return this.values.length;
+	}
+
+	/**
+	 * @return the fraction of the tuples taking one of the most common values
+	 */
+	public double getCommonFraction() {
+		return this.commonFraction;
+	}
+
+	/**
+	 * Return the fraction of the tuples taking a value, if it is one of
+	 * the most common values
+	 * @param value Value
+	 * @return Fraction of the tuples, or -1 if the value is not in the MCV list
+	 */
+	public double getFrequency(String value) {
+		Double f = this.common.get(value);
+		return f == null ? -1 : f;
+	}
+
+	/**
+	 * @return the number of buckets in the histogram
+	 */
+	public int getBucketCount() {
+		return this.distinct.length;
+	}
+
+	/**
+	 * Estimate the selectivity of attr=value
+	 * @param value Value compared with
+	 * @param values Number of distinct values of the attribute
+	 * @return Fraction of the tuples taking the value
+	 */
+	public double selectivity(String value, long values) {
+		double f = getFrequency(value);
+		if (f >= 0) {
+			return f;
+		}
+		double rest = 1 - this.commonFraction;
+		int bucket = bucketOf(value);
+		if (bucket < 0) {
+			return rest / Math.max(1, values - this.values.length);
+		}
+		return rest / this.distinct.length / Math.max(1, this.distinct[bucket]);
+	}
+
+	/**
+	 * Estimate the selectivity of a range of values
+	 * @param low Lowest value of the range, or null if it has none
+	 * @param lowInclusive true if the lowest value is in the range
+	 * @param high Highest value of the range, or null if it has none
+	 * @param highInclusive true if the highest value is in the range
+	 * @param guess Fraction of the values not in the MCV list taken to be
+	 * in the range if there is no histogram
+	 * @return Fraction of the tuples with a value in the range
+	 */
+	public double selectivity(String low, boolean lowInclusive, String high, boolean highInclusive, double guess) {
+		double common = 0;
+		for (int i = 0; i < this.values.length; i++) {
+			int above = low == null ? 1 : compare(this.values[i], low);
+			int under = high == null ? -1 : compare(this.values[i], high);
+			if ((above > 0 || (lowInclusive && above == 0)) && (under < 0 || (highInclusive && under == 0))) {
+				common += this.frequencies[i];
+			}
+		}
+		double other = guess;
+		if (this.distinct.length > 0) {
+			other = (high == null ? 1 : below(high, highInclusive)) - (low == null ? 0 : below(low, !lowInclusive));
+		}
+		return Math.max(0, Math.min(1, common + (1 - this.commonFraction) * Math.max(0, other)));
+	}
+
+	/**
+	 * Estimate the selectivity of attr=attr, by matching the MCV lists of the
+	 * two attributes; the values not in either list are taken to be uniform.
+	 * @param left Synopsis of the left attribute
+	 * @param leftValues Number of distinct values of the left attribute
+	 * @param right Synopsis of the right attribute
+	 * @param rightValues Number of distinct values of the right attribute
+	 * @return Fraction of the pairs of tuples with equal values
+	 */
+	public static double selectivity(Synopsis left, long leftValues, Synopsis right, long rightValues) {
+		double matched = 0; // fraction of pairs that match on common values
+		double leftMatched = 0;
+		double rightMatched = 0;
+		int matches = 0;
+		for (int i = 0; i < left.values.length; i++) {
+			double f = right.getFrequency(left.values[i]);
+			if (f >= 0) {
+				matched += left.frequencies[i] * f;
+				leftMatched += left.frequencies[i];
+				rightMatched += f;
+				matches++;
+			}
+		}
+		double leftOther = 1 - left.commonFraction;
+		double rightOther = 1 - right.commonFraction;
+		double leftUnmatched = left.commonFraction - leftMatched;
+		double rightUnmatched = right.commonFraction - rightMatched;
+
+		// the remaining tuples on each side match values of the other side
+		// that are not in its MCV list, as if those were uniform
+		double fromLeft = matched;
+		if (rightValues > right.values.length) {
+			fromLeft += leftUnmatched * rightOther / (rightValues - right.values.length);
+		}
+		if (rightValues > matches) {
+			fromLeft += leftOther * (rightOther + rightUnmatched) / (rightValues - matches);
+		}
+		double fromRight = matched;
+		if (leftValues > left.values.length) {
+			fromRight += rightUnmatched * leftOther / (leftValues - left.values.length);
+		}
+		if (leftValues > matches) {
+			fromRight += rightOther * (leftOther + leftUnmatched) / (leftValues - matches);
+		}
+		return Math.max(0, Math.min(1, Math.min(fromLeft, fromRight)));
+	}
+
+	/**
+	 * Compare two values, as numbers if both are numbers
+	 */
+	public static int compare(String a, String b) {
+		return compare(a, number(a), b, number(b));
+	}
+
+	/**
+	 * Compare two values, given the numbers they parse as (or null)
+	 */
+	static int compare(String a, Double x, String b, Double y) {
+		if (x != null && y != null) {
+			return Double.compare(x, y);
+		}
+		if (x != null || y != null) {
+			return x != null ? -1 : 1;
+		}
+		return a.compareTo(b);
+	}
+
+	/**
+	 * Render the synopsis in the form used in the serialised catalogue:
+	 * mcv=value/fraction;... for the MCV list and
+	 * hist=low;high/distinct;... for the histogram, separated by a comma,
+	 * leaving out either if it is empty
+	 */
+	public String render() {
+		StringBuilder ret = new StringBuilder();
+		if (this.values.length > 0) {
+			ret.append("mcv=");
+			for (int i = 0; i < this.values.length; i++) {
+				ret.append(i > 0 ? ";" : "").append(this.values[i]).append('/').append(this.frequencies[i]);
+			}
+		}
+		if (this.distinct.length > 0) {
+			ret.append(ret.length() > 0 ? "," : "").append("hist=").append(this.bounds[0]);
+			for (int i = 0; i < this.distinct.length; i++) {
+				ret.append(';').append(this.bounds[i + 1]).append('/').append(this.distinct[i]);
+			}
+		}
+		return ret.toString();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return render();
+	}
+
+	/**
+	 * Return the fraction of the values in the histogram that are below
+	 * the given value (or equal to it, if inclusive)
+	 */
+	private double below(String value, boolean inclusive) {
+		int k = this.distinct.length;
+		int bucket = bucketOf(value);
+		if (bucket < 0) {
+			return compare(value, this.bounds[0]) < 0 ? 0 : 1;
+		}
+		double ret = bucket + position(value, this.bounds[bucket], this.bounds[bucket + 1]);
+		if (inclusive) {
+			ret += 1.0 / Math.max(1, this.distinct[bucket]);
+		}
+		return Math.min(1, ret / k);
+	}
+
+	/**
+	 * Return how far a value lies between two bounds, as a fraction
+	 */
+	private static double position(String value, String low, String high) {
+		Double v = number(value);
+		Double lo = number(low);
+		Double hi = number(high);
+		if (v == null || lo == null || hi == null) {
+			return compare(value, high) == 0 ? 1 : 0.5;
+		}
+		if (hi <= lo) {
+			return v >= hi ? 1 : 0;
+		}
+		return Math.max(0, Math.min(1, (v - lo) / (hi - lo)));
+	}
+
+	/**
+	 * Return the bucket holding a value, or -1 if it is outside the histogram
+	 */
+	private int bucketOf(String value) {
+		if (this.distinct.length == 0 || compare(value, this.bounds[0]) < 0) {
+			return -1;
+		}
+		int lo = 0;
+		int hi = this.distinct.length - 1;
+		if (compare(value, this.bounds[hi + 1]) > 0) {
+			return -1;
+		}
+		while (lo < hi) { // first bucket whose upper bound is at least the value
+			int mid = (lo + hi) >>> 1;
+			if (compare(value, this.bounds[mid + 1]) <= 0) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Return the value as a number, or null if it is not a decimal number
+	 * (such as -1, 2.5 or 1e6); values are checked before they are parsed,
+	 * as throwing an exception for every non-number is slow
+	 */
+	static Double number(String value) {
+		int i = 0;
+		int n = value.length();
+		if (i < n && (value.charAt(i) == '-' || value.charAt(i) == '+')) i++;
+		int digits = 0;
+		for (; i < n && Character.isDigit(value.charAt(i)); i++) digits++;
+		if (i < n && value.charAt(i) == '.') {
+			for (i++; i < n && Character.isDigit(value.charAt(i)); i++) digits++;
+		}
+		if (digits > 0 && i < n && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+			i++;
+			if (i < n && (value.charAt(i) == '-' || value.charAt(i) == '+')) i++;
+			int exponent = i;
+			for (; i < n && Character.isDigit(value.charAt(i)); i++);
+			if (i == exponent) return null;
+		}
+		if (digits == 0 || i < n) {
+			return null;
+		}
+		return Double.valueOf(value);
+	}
+}
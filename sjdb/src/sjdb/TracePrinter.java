@@ -0,0 +1,73 @@
+package sjdb;
+
+import java.io.PrintStream;
+
+/**
+ * This class implements an OptimiserListener that prints every event
+ * to a stream, one line per event, for debugging the Optimiser.
+ */
+public class TracePrinter implements OptimiserListener {
+	private PrintStream out;
+
+	/**
+	 * Create a new printer that writes to System.out
+	 */
+	public TracePrinter() {
+		this(System.out);
+	}
+
+	/**
+	 * Create a new printer.
+	 * @param out Stream to print to
+	 */
+	public TracePrinter(PrintStream out) {
+		this.out = out;
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.OptimiserListener#phaseStarted(java.lang.String)
+	 */
+	public void phaseStarted(String phase) {
+		this.out.println("start " + phase);
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.OptimiserListener#phaseEnded(java.lang.String)
+	 */
+	public void phaseEnded(String phase) {
+		this.out.println("end " + phase);
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.OptimiserListener#candidateCosted(long, sjdb.Operator, long)
+	 */
+	public void candidateCosted(long relations, Operator plan, long cost) {
+		this.out.println("costed " + render(relations) + " cost=" + cost + ": " + plan);
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.OptimiserListener#candidatePruned(long, long, long)
+	 */
+	public void candidatePruned(long relations, long cost, long bound) {
+		this.out.println("pruned " + render(relations) + " cost>=" + cost + " bound=" + bound);
+	}
+
+	/* (non-Javadoc)
+	 * @see sjdb.OptimiserListener#bestImproved(sjdb.Operator, long)
+	 */
+	public void bestImproved(Operator plan, long cost) {
+		this.out.println("Found plan with cost: " + cost);
+	}
+
+	/**
+	 * Render a set of relation indices, such as {0,2,3}
+	 */
+	private static String render(long relations) {
+		StringBuilder ret = new StringBuilder("{");
+		for (long rest = relations; rest != 0; rest &= rest - 1) {
+			if (ret.length() > 1) ret.append(',');
+			ret.append(Long.numberOfTrailingZeros(rest));
+		}
+		return ret.append('}').toString();
+	}
+}
@@ -0,0 +1,295 @@
+package sjdb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class generates synthetic catalogues and queries, for testing and
+ * benchmarking the optimiser on larger queries than the shipped examples.
+ *
+ * Relation i is named Ri. For every predicate between relations i and j of
+ * the join graph, Ri has an attribute ci_j and Rj an attribute cj_i, and
+ * the predicate is ci_j=cj_i. Every relation also has an attribute vi,
+ * which the selections (vi="value") and the projection use.
+ *
+ * The join graph is one of the following shapes, to which each other pair
+ * of relations is then joined with the given predicate density:
+ *
+ * - chain: Ri joins Ri+1
+ * - cycle: a chain in which the last relation also joins R0
+ * - star: every relation joins R0
+ * - snowflake: a third of the relations join R0, and the others each
+ *   join one of those
+ * - clique: every relation joins every other
+ *
+ * Tuple counts are spread evenly on a log scale between the minimum and
+ * maximum. The number of distinct values of an attribute is T(R) u^skew,
+ * for u uniform in (0,1], so a skew of zero makes every attribute a key
+ * and larger skews give attributes with fewer distinct values.
+ *
+ * Everything is drawn from a seeded random number generator, so the same
+ * settings always give the same catalogue and queries.
+ *
+ * Usage: WorkloadGenerator shape relations directory [queries [density [skew [seed]]]]
+ *
+ * writes the catalogue to directory/cat.txt, and the queries to
+ * directory/q1.txt, directory/q2.txt and so on.
+ */
+public class WorkloadGenerator {
+	public static final String[] SHAPES = { "chain", "cycle", "star", "snowflake", "clique" };
+
+	private String shape;
+	private int relations;
+	private long minTuples = 10;
+	private long maxTuples = 10000;
+	private double skew = 1.0;
+	private double density = 0.0;
+	private int selections = 1;
+	private long seed = 1;
+
+	// generated on first use
+	private long[] tuples;
+	private List<List<Attribute>> attributes;
+	private List<int[]> edges;
+
+	/**
+	 * Create a new generator.
+	 * @param shape Shape of the join graph, one of SHAPES
+	 * @param relations Number of relations
+	 */
+	public WorkloadGenerator(String shape, int relations) {
+		boolean known = false;
+		for (String s : SHAPES) {
+			known |= s.equals(shape);
+		}
+		if (!known) {
+			throw new IllegalArgumentException("Unknown join graph shape: " + shape);
+		}
+		if (relations < 1) {
+			throw new IllegalArgumentException("Must have at least one relation: " + relations);
+		}
+		this.shape = shape;
+		this.relations = relations;
+	}
+
+	/**
+	 * Set the range of tuple counts (10 to 10000 by default)
+	 */
+	public void setTuples(long minTuples, long maxTuples) {
+		if (minTuples < 1 || maxTuples < minTuples) {
+			throw new IllegalArgumentException("Bad tuple count range: " + minTuples + " to " + maxTuples);
+		}
+		this.minTuples = minTuples;
+		this.maxTuples = maxTuples;
+		this.tuples = null;
+	}
+
+	/**
+	 * Set the skew of the distinct value counts (1 by default, 0 for keys)
+	 */
+	public void setSkew(double skew) {
+		this.skew = skew;
+		this.tuples = null;
+	}
+
+	/**
+	 * Set the probability that a pair of relations not joined by the
+	 * shape is joined anyway (0 by default, 1 for a clique)
+	 */
+	public void setDensity(double density) {
+		this.density = density;
+		this.tuples = null;
+	}
+
+	/**
+	 * Set the number of attr="value" predicates in each query (1 by default)
+	 */
+	public void setSelections(int selections) {
+		this.selections = Math.min(selections, this.relations);
+	}
+
+	/**
+	 * Set the seed of the random number generator (1 by default)
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+		this.tuples = null;
+	}
+
+	/**
+	 * Create the generated relations and attributes in a catalogue
+	 * @param catalogue Catalogue to be filled
+	 */
+	public void populate(Catalogue catalogue) {
+		generate();
+		for (int i = 0; i < this.relations; i++) {
+			catalogue.createRelation("R" + i, this.tuples[i]);
+			for (Attribute attr : this.attributes.get(i)) {
+				catalogue.createAttribute("R" + i, attr.getName(), attr.getValueCount());
+			}
+		}
+	}
+
+	/**
+	 * Write the generated catalogue in the format read by CatalogueParser
+	 * @param out Writer to write to
+	 */
+	public void writeCatalogue(Writer out) throws IOException {
+		generate();
+		for (int i = 0; i < this.relations; i++) {
+			out.write("R" + i + ":" + this.tuples[i]);
+			for (Attribute attr : this.attributes.get(i)) {
+				out.write(":" + attr.render());
+			}
+			out.write("\n");
+		}
+	}
+
+	/**
+	 * Return the text of a generated query over every relation, in the
+	 * format read by QueryParser. Queries with different indices differ
+	 * in their selections and projection.
+	 * @param index Index of the query
+	 * @return Query text
+	 */
+	public String query(int index) {
+		generate();
+		Random random = new Random(this.seed * 31 + index);
+
+		List<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < this.relations; i++) {
+			order.add(i);
+		}
+		Collections.shuffle(order, random);
+
+		StringBuilder from = new StringBuilder();
+		for (int i = 0; i < this.relations; i++) {
+			from.append(i > 0 ? "," : "").append("R" + i);
+		}
+
+		StringBuilder where = new StringBuilder();
+		for (int i = 0; i < this.selections; i++) {
+			where.append(where.length() > 0 ? "," : "").append("v" + order.get(i) + "=\"x" + random.nextInt(1000) + "\"");
+		}
+		for (int[] edge : this.edges) {
+			where.append(where.length() > 0 ? "," : "");
+			where.append("c" + edge[0] + "_" + edge[1] + "=c" + edge[1] + "_" + edge[0]);
+		}
+
+		String select = "v" + order.get(0);
+		if (this.relations > 1) {
+			select += ",v" + order.get(this.relations - 1);
+		}
+		return "SELECT " + select + "\nFROM " + from + (where.length() > 0 ? "\nWHERE " + where : "");
+	}
+
+	/**
+	 * Generate the tuple counts, attributes and join graph, unless the
+	 * settings are unchanged since they were last generated
+	 */
+	private void generate() {
+		if (this.tuples != null) {
+			return;
+		}
+		Random random = new Random(this.seed);
+		int n = this.relations;
+
+		// join graph: the edges of the shape, then extra edges by density
+		boolean[][] joined = new boolean[n][n];
+		this.edges = new ArrayList<int[]>();
+		int dims = Math.max(1, (n - 1) / 3);
+		for (int j = 1; j < n; j++) {
+			if (this.shape.equals("chain") || this.shape.equals("cycle")) {
+				join(joined, j - 1, j);
+			} else if (this.shape.equals("star") || (this.shape.equals("snowflake") && j <= dims)) {
+				join(joined, 0, j);
+			} else if (this.shape.equals("snowflake")) {
+				join(joined, 1 + (j - dims - 1) % dims, j);
+			} else {
+				for (int i = 0; i < j; i++) {
+					join(joined, i, j);
+				}
+			}
+		}
+		if (this.shape.equals("cycle") && n > 2) {
+			join(joined, 0, n - 1);
+		}
+		for (int i = 0; i < n; i++) {
+			for (int j = i + 1; j < n; j++) {
+				if (!joined[i][j] && random.nextDouble() < this.density) {
+					join(joined, i, j);
+				}
+			}
+		}
+
+		this.tuples = new long[n];
+		this.attributes = new ArrayList<List<Attribute>>();
+		double range = Math.log((double) this.maxTuples / this.minTuples);
+		for (int i = 0; i < n; i++) {
+			long t = Math.round(this.minTuples * Math.exp(range * random.nextDouble()));
+			this.tuples[i] = t;
+
+			List<Attribute> attrs = new ArrayList<Attribute>();
+			attrs.add(new Attribute("v" + i, distinct(random, t)));
+			for (int j = 0; j < n; j++) {
+				if (joined[Math.min(i, j)][Math.max(i, j)] && i != j) {
+					attrs.add(new Attribute("c" + i + "_" + j, distinct(random, t)));
+				}
+			}
+			this.attributes.add(attrs);
+		}
+	}
+
+	private void join(boolean[][] joined, int i, int j) {
+		int lo = Math.min(i, j);
+		int hi = Math.max(i, j);
+		if (!joined[lo][hi]) {
+			joined[lo][hi] = true;
+			this.edges.add(new int[] { lo, hi });
+		}
+	}
+
+	/**
+	 * Draw the number of distinct values of an attribute of a relation
+	 * with the given tuple count
+	 */
+	private long distinct(Random random, long tuples) {
+		double u = 1.0 - random.nextDouble(); // in (0,1]
+		return Math.max(1, Math.min(tuples, Math.round(tuples * Math.pow(u, this.skew))));
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: WorkloadGenerator shape relations directory [queries [density [skew [seed]]]]");
+			System.exit(1);
+		}
+		WorkloadGenerator generator = new WorkloadGenerator(args[0], Integer.parseInt(args[1]));
+		File dir = new File(args[2]);
+		int queries = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+		if (args.length > 4) generator.setDensity(Double.parseDouble(args[4]));
+		if (args.length > 5) generator.setSkew(Double.parseDouble(args[5]));
+		if (args.length > 6) generator.setSeed(Long.parseLong(args[6]));
+
+		dir.mkdirs();
+		Writer out = new FileWriter(new File(dir, "cat.txt"));
+		try {
+			generator.writeCatalogue(out);
+		} finally {
+			out.close();
+		}
+		for (int i = 1; i <= queries; i++) {
+			out = new FileWriter(new File(dir, "q" + i + ".txt"));
+			try {
+				out.write(generator.query(i));
+			} finally {
+				out.close();
+			}
+		}
+	}
+}